@@ -6,12 +6,9 @@ package players;/*
 import snake.GameState;
 import snake.Snake;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.PriorityQueue;
-import java.util.Set;
 
 /**
  *
@@ -19,14 +16,55 @@ import java.util.Set;
  */
 public class AStarPlayer extends RandomPlayer {
 
-    Map<Position, Integer> positions;
+    // For every occupied cell, the number of moves its segment stays there; see isOccupied
+    private int[] cutoffs;
+    // A cell is closed in the current search if it holds closedMark
+    private int[] closed;
+    private int closedMark;
+    // Kept from search to search; the first nrNodesUsed nodes of the pool belong to the current search
+    private final PriorityQueue<Node> frontier = new PriorityQueue<>();
+    private final List<Node> nodePool = new ArrayList<>();
+    private int nrNodesUsed;
+    // Number of nodes expanded by the last search
+    long nodesExpanded;
+    // Boards with more cells than this are planned on with HierarchicalPlanner instead of DStarLite
+    private static final int LARGE_BOARD_CELLS = 128 * 128;
+    // Keep their search between moves, created on the first move
+    private DStarLite planner;
+    private HierarchicalPlanner hierarchicalPlanner;
+    // Follows a tour of the board once every opponent is dead, see SoloTour; -Dsnake.solo=false turns it off
+    private boolean useSoloTour = Boolean.parseBoolean(System.getProperty("snake.solo", "true"));
+    private SoloTour soloTour;
 
     public AStarPlayer(GameState state, int index, Snake game) {
         super(state, index, game);
     }
 
+    public void setUseSoloTour(boolean useSoloTour) {
+        this.useSoloTour = useSoloTour;
+    }
+
     @Override
     public void doMove() {
+        int soloMove = getSoloMove();
+        if (soloMove > 0) {
+            state.setOrientation(index, soloMove);
+            return;
+        }
+        if (state.getWidth() * state.getHeight() > LARGE_BOARD_CELLS) {
+            doHierarchicalMove();
+            return;
+        }
+        if (planner == null) {
+            planner = new DStarLite(state.getWidth(), state.getHeight(), index);
+        }
+        int move = planner.getMove(state);
+        nodesExpanded = planner.nodesExpanded;
+        if (move > 0) {
+            state.setOrientation(index, move);
+            return;
+        }
+        // The planner treats some cells as blocked that a longer path would find vacated, the full search does not
         Node n = searchTarget(state);
         if (n != null) {
             state.setOrientation(index, n.getFirstMove());
@@ -37,46 +75,100 @@ public class AStarPlayer extends RandomPlayer {
         }
     }
 
+    /*
+     * Once the player is the only snake left, the move along its tour of the board, or -1 if there are still opponents
+     * or the tour leaves the move to the search, see SoloTour.getMove.
+     */
+    protected int getSoloMove() {
+        if (!useSoloTour || !SoloTour.isAlone(state, index)) {
+            return -1;
+        }
+        if (soloTour == null || !soloTour.fits(state)) {
+            soloTour = new SoloTour(state.getWidth(), state.getHeight(), index);
+        }
+        return soloTour.getMove(state);
+    }
+
+    /*
+     * On large boards even a search from scratch for a new target would grow with the board, so the abstract graph
+     * of the hierarchical planner is searched instead. Without a path there is a random move rather than a full search.
+     */
+    private void doHierarchicalMove() {
+        if (hierarchicalPlanner == null) {
+            hierarchicalPlanner = new HierarchicalPlanner(state.getWidth(), state.getHeight(), index);
+        }
+        int move = hierarchicalPlanner.getMove(state);
+        nodesExpanded = hierarchicalPlanner.nodesExpanded;
+        if (move > 0) {
+            state.setOrientation(index, move);
+        }
+        else {
+            doRandomMove();
+        }
+    }
+
     /*
      * We want to select the move which gets us closest to the target
      */
     private Node searchTarget(GameState state) {
         initPositions(state);
-        PriorityQueue<Node> frontier = new PriorityQueue();
-        Set<Position> closed = new HashSet();
-        frontier.add(new Node(state.getPlayerX(index).get(0), state.getPlayerY(index).get(0), state.getTargetX(), state.getTargetY()));
+        int width = state.getWidth();
+        if (closed == null || closed.length != width * state.getHeight()) {
+            closed = new int[width * state.getHeight()];
+        }
+        closedMark++;
+        frontier.clear();
+        nrNodesUsed = 0;
+        frontier.add(newNode(state.getHeadX(index), state.getHeadY(index), null, state));
         while (!frontier.isEmpty()) {
             Node n = frontier.poll();
-            closed.add(new Position(n.x, n.y));
+            nodesExpanded++;
+            closed[n.x + n.y * width] = closedMark;
             if (state.getTargetX() == n.x && state.getTargetY() == n.y) {
                 return n;
             }
             else {
-                if (!isOccupied(n.x + 1, n.y, n.depth, state) && !closed.contains(new Position(n.x + 1, n.y))) {
-                    frontier.add(new Node(n.x + 1, n.y, n));
+                if (!isOccupied(n.x + 1, n.y, n.depth, state) && closed[n.x + 1 + n.y * width] != closedMark) {
+                    frontier.add(newNode(n.x + 1, n.y, n, state));
                 }
-                if (!isOccupied(n.x - 1, n.y, n.depth, state) && !closed.contains(new Position(n.x - 1, n.y))) {
-                    frontier.add(new Node(n.x - 1, n.y, n));
+                if (!isOccupied(n.x - 1, n.y, n.depth, state) && closed[n.x - 1 + n.y * width] != closedMark) {
+                    frontier.add(newNode(n.x - 1, n.y, n, state));
                 }
-                if (!isOccupied(n.x, n.y + 1, n.depth, state) && !closed.contains(new Position(n.x, n.y + 1))) {
-                    frontier.add(new Node(n.x, n.y + 1, n));
+                if (!isOccupied(n.x, n.y + 1, n.depth, state) && closed[n.x + (n.y + 1) * width] != closedMark) {
+                    frontier.add(newNode(n.x, n.y + 1, n, state));
                 }
-                if (!isOccupied(n.x, n.y - 1, n.depth, state) && !closed.contains(new Position(n.x, n.y - 1))) {
-                    frontier.add(new Node(n.x, n.y - 1, n));
+                if (!isOccupied(n.x, n.y - 1, n.depth, state) && closed[n.x + (n.y - 1) * width] != closedMark) {
+                    frontier.add(newNode(n.x, n.y - 1, n, state));
                 }
             }
         }
         return null;
     }
 
+    // Takes the next node from the pool; the nodes of a search are only valid until the next search
+    private Node newNode(int x, int y, Node previous, GameState state) {
+        if (nrNodesUsed == nodePool.size()) {
+            nodePool.add(new Node(0, 0, 0, 0));
+        }
+        Node node = nodePool.get(nrNodesUsed++);
+        if (previous == null) {
+            node.reset(x, y, state.getTargetX(), state.getTargetY());
+        }
+        else {
+            node.reset(x, y, previous);
+        }
+        return node;
+    }
+
     protected void initPositions(GameState state) {
-        positions = new HashMap();
+        if (cutoffs == null || cutoffs.length != state.getWidth() * state.getHeight()) {
+            cutoffs = new int[state.getWidth() * state.getHeight()];
+        }
         for (int i = 0; i < state.getNrPlayers(); i++) {
             if (!state.isDead(i)) {
-                List<Integer> xList = state.getPlayerX(i);
-                List<Integer> yList = state.getPlayerY(i);
-                for (int j = 0; j < xList.size(); j++) {
-                    positions.put(new Position(xList.get(j), yList.get(j)), xList.size() - j);
+                int size = state.getSize(i);
+                for (int j = 0; j < size; j++) {
+                    cutoffs[state.getSegmentX(i, j) + state.getSegmentY(i, j) * state.getWidth()] = size - j;
                 }
             }
         }
@@ -98,7 +190,6 @@ public class AStarPlayer extends RandomPlayer {
         else if (!state.isOccupied(x, y)) {
             return false;
         }
-        int cutoff = positions.get(new Position(x, y));
-        return step <= cutoff;
+        return step <= cutoffs[x + y * state.getWidth()];
     }
 }
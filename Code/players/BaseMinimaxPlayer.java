@@ -3,85 +3,194 @@ package players;
 import snake.GameState;
 import snake.Snake;
 
-import java.util.HashMap;
 import java.util.Map;
-import java.util.PriorityQueue;
 
 public abstract class BaseMinimaxPlayer extends AStarPlayer {
+
+    // Precomputed moves for the positions that repeat at the start of every game, see OpeningBookGenerator.
+    private static final OpeningBook openingBook = OpeningBook.load(System.getProperty("snake.book", "snake.book"));
+    // Value network that replaces the linear evaluation when -Dsnake.network=<file> is given, see ValueNetworkTrainer.
+    private static final ValueNetwork defaultNetwork = ValueNetwork.load(System.getProperty("snake.network", ""));
+    // Maps the predicted outcome of the network (-1 to 1) to about the scale of the linear evaluation,
+    // on which the aspiration windows and the time manager are tuned
+    private static final double NETWORK_VALUE_SCALE = 10;
+    private boolean useOpeningBook = true;
+    // Learns how the opponents move, to skip their unlikely replies in the search; -Dsnake.opponentModel=false turns it off
+    private boolean useOpponentModel = Boolean.parseBoolean(System.getProperty("snake.opponentModel", "true"));
+    private OpponentModel opponentModel;
+    // Solves fights between the last two snakes exactly once they are confined to a small area;
+    // -Dsnake.endgame=false turns it off
+    private boolean useEndgameSolver = Boolean.parseBoolean(System.getProperty("snake.endgame", "true"));
+    private EndgameSolver endgameSolver;
+    // Part of the nominal time of a move the endgame solver may use before the search takes over
+    private static final double ENDGAME_TIME_FRACTION = 0.5;
+    protected TimeManager timeManager;
+    protected LinearEvaluation evaluation = LinearEvaluation.DEFAULT;
+    // One evaluator per thread, as the parallel search evaluates leaves on several threads at once
+    protected ThreadLocal<ValueNetwork.Evaluator> network;
+    // How targets are generated at chance nodes, see MinimaxNode.ChanceMode; -Dsnake.chance=exact switches every player over
+    protected MinimaxNode.ChanceMode chanceMode = MinimaxNode.ChanceMode.valueOf(System.getProperty("snake.chance", "sampled").toUpperCase());
+
     protected BaseMinimaxPlayer(GameState state, int index, Snake game) {
         super(state, index, game);
+        opponentModel = new OpponentModel(state.getNrPlayers(), index);
+        if (defaultNetwork != null && defaultNetwork.fits(state))
+            network = ThreadLocal.withInitial(defaultNetwork::newEvaluator);
+    }
+
+
+    public void setUseOpeningBook(boolean useOpeningBook) {
+        this.useOpeningBook = useOpeningBook;
+    }
+
+
+    public void setUseOpponentModel(boolean useOpponentModel) {
+        this.useOpponentModel = useOpponentModel;
+    }
+
+
+    public void setUseEndgameSolver(boolean useEndgameSolver) {
+        this.useEndgameSolver = useEndgameSolver;
+    }
+
+
+    // Search a fixed number of nodes per move instead of using the clock, which makes the moves reproducible, see TimeManager
+    public void setNodeLimit(long nodeLimit) {
+        timeManager.setNodeLimit(nodeLimit);
+    }
+
+
+    // Returns the move of the endgame solver, or -1 if the position is not a small endgame between two snakes,
+    // the solver did not finish in time, or it found no decisive result within its horizon. See EndgameSolver.
+    // A draw only means nothing is decided within the horizon, so the search still picks the move then.
+    // Once an area could not be decided, the solver leaves the moves to the search until the area has shrunk.
+    protected int getEndgameMove() {
+        if (!useEndgameSolver)
+            return -1;
+        if (endgameSolver == null)
+            endgameSolver = new EndgameSolver(index);
+        EndgameSolver.Result result = endgameSolver.solve(state, timeManager, ENDGAME_TIME_FRACTION);
+        if (result == null || result.outcome == EndgameSolver.Outcome.DRAW)
+            return -1;
+        return result.move;
+    }
+
+
+    // Lets the opponent model learn from the moves the opponents made since this player's last move
+    protected void observeOpponentMoves() {
+        opponentModel.observeMoves(state);
+    }
+
+
+    // Lets the opponent model know which move this player made, so the moves of the opponents after it can be told
+    protected void observeOwnMove(int move) {
+        opponentModel.observeOwnMove(state, move);
+    }
+
+
+    // The children of node without the replies of an opponent that the opponent model considers unlikely.
+    // The children of this player's own nodes and of chance nodes are returned unchanged.
+    protected MinimaxNode[] getLikelyReplies(MinimaxNode node, MinimaxNode[] childNodes) {
+        if (!useOpponentModel || node.isChanceNode() || node.getCurrentPlayer() == index)
+            return childNodes;
+        return opponentModel.getLikelyReplies(node, childNodes);
+    }
+
+
+    // Returns the only move that does not end in immediate death, NORTH if every move does, or -1 if there is a choice.
+    // Moves are simulated rather than checked with isLegalMove, as moving into the cell of a tail that moves away is fine.
+    protected int getForcedMove() {
+        int forcedMove = GameState.NORTH;
+        int nrSurvivingMoves = 0;
+        for (MinimaxNode child : new MinimaxNode(state, index).GenerateChildNodes()) {
+            if (!child.getGameState().isDead(index)) {
+                forcedMove = child.getGameState().getLastOrientation(index);
+                nrSurvivingMoves++;
+            }
+        }
+        return nrSurvivingMoves <= 1 ? forcedMove : -1;
+    }
+
+
+    // Returns the move with the highest value
+    protected int getBestMove(Map<MinimaxNode, Double> moveValues) {
+        MinimaxNode bestMove = null;
+        Double bestValue = Double.NEGATIVE_INFINITY;
+        for (MinimaxNode move : moveValues.keySet()) {
+            Double value = moveValues.get(move);
+            if (bestMove == null || value > bestValue) {
+                bestMove = move;
+                bestValue = value;
+            }
+        }
+        return bestMove.getGameState().getLastOrientation(index);
     }
 
 
-    // Evaluation function
+    // Returns the book move for the current position, or -1 if the position has to be searched.
+    protected int getOpeningBookMove() {
+        if (!useOpeningBook || openingBook == null)
+            return -1;
+        int move = openingBook.getMove(state, index, getSearchSpec());
+        if (move > 0 && state.isLegalMove(index, move))
+            return move;
+        return -1;
+    }
+
+
+    // Everything that decides which move the search picks, to tell the searches of different players apart in the
+    // opening book: the kind of player, its evaluation and how it generates chance nodes.
+    protected String getSearchSpec() {
+        return getClass().getSimpleName() + ":" + (network != null ? "network" : evaluation.toString()) + ":" + chanceMode;
+    }
+
+
+    // Evaluate with the given network instead of the linear evaluation, or with the linear evaluation again if null
+    public void setValueNetwork(ValueNetwork valueNetwork) {
+        if (valueNetwork != null && !valueNetwork.fits(state))
+            throw new IllegalArgumentException("The value network was trained for another board size");
+        network = valueNetwork == null ? null : ThreadLocal.withInitial(valueNetwork::newEvaluator);
+    }
+
+
+    public void setChanceMode(MinimaxNode.ChanceMode chanceMode) {
+        this.chanceMode = chanceMode;
+    }
+
+
+    public void setEvaluation(LinearEvaluation evaluation) {
+        this.evaluation = evaluation;
+    }
+
+
+    // Evaluation function: the value network if there is one,
+    // otherwise a weighted sum of the length difference and the proximity of the target
     protected Double evaluateState(GameState state, int playerIndex) {
         if (state.isDead(playerIndex))
             return Double.NEGATIVE_INFINITY;
-        return getLengthDifferenceWithLongestEnemy(state, playerIndex) + 1d / searchTargetDistance(state, playerIndex);
+        if (network != null)
+            return NETWORK_VALUE_SCALE * network.get().evaluate(state, playerIndex);
+        return evaluation.evaluate(getLengthDifferenceWithLongestEnemy(state, playerIndex), searchTargetDistance(state, playerIndex));
     }
 
 
-    // Returns the signed difference in length between the specified player and its longest enemy
+    // Returns the signed difference in length between the specified player and its longest enemy.
+    // Lengths include the extensions still to grow, so a target that was just taken counts straight away.
     protected int getLengthDifferenceWithLongestEnemy(GameState state, int playerIndex) {
-        int length = state.getSize(playerIndex);
+        int length = state.getSize(playerIndex) + state.getNrExtensionsLeft(playerIndex);
         int largestEnemySize = 0;
         for (int i = 0; i < state.getNrPlayers(); i++)
             if (i != playerIndex && !state.isDead(i))
-                largestEnemySize = Math.max(largestEnemySize, state.getSize(i));
+                largestEnemySize = Math.max(largestEnemySize, state.getSize(i) + state.getNrExtensionsLeft(i));
 
         return length - largestEnemySize;
     }
 
 
-    // Finds the shortest distance to the current disk using a variant of a* search.
+    // Finds the shortest distance to the current disk.
+    // The distances are computed once outwards from the target and shared between the states of the search tree,
+    // so this is a constant time lookup for any player instead of an a* search per player and per leaf.
     protected int searchTargetDistance(GameState state, int playerIndex) {
-        initPositions(state);
-        PriorityQueue<Node> frontier = new PriorityQueue();
-        // Used to store the best distance found for each position
-        // This is worth it because we can ignore so many of the equal length paths that arise from grid movement
-        Map<Position, Integer> closed = new HashMap();
-
-        // Add initial node to frontier
-        frontier.add(new Node(state.getPlayerX(playerIndex).get(0), state.getPlayerY(playerIndex).get(0), state.getTargetX(), state.getTargetY()));
-
-        while (!frontier.isEmpty()) {
-            // Take the highest priority node from the frontier
-            Node n = frontier.poll();
-
-            // Enumerate possible next positions in the path
-            Position[] potentialPositions = {
-                    new Position(n.x + 1, n.y),
-                    new Position(n.x - 1, n.y),
-                    new Position(n.x, n.y + 1),
-                    new Position(n.x, n.y - 1),
-            };
-            // Iterate over potential positions
-            for (Position position : potentialPositions) {
-
-                // If the position is the target point, we have found the distance
-                if (position.x == state.getTargetX() && position.y == state.getTargetY())
-                    return n.distanceTravelled + 1;
-
-                // If the position is occupied, stop considering the node.
-                if (isOccupied(position.x, position.y, n.depth, state))
-                    continue;
-
-                Integer lowestDistanceTravelled = closed.get(position);
-                int newDistanceTravelled = n.distanceTravelled + 1;
-
-                // Add the node only if:
-                //     No node has been added to the frontier at this position
-                // OR
-                //     The current path length is shorter than that of the previous node added to the frontier in this position
-                if (lowestDistanceTravelled == null || newDistanceTravelled < lowestDistanceTravelled) {
-                    frontier.add(new Node(position.x, position.y, n));
-                    closed.put(position, newDistanceTravelled);
-                }
-            }
-        }
-
-        // If the frontier search space is exhausted without reaching the target, return the largest path length possible
-        // This is more convenient than NULL because it can be easily compared with other paths lengths, (it is longer than any possible valid path so will always be considered worse).
-        return Integer.MAX_VALUE;
+        return state.getTargetDistance(playerIndex);
     }
 }
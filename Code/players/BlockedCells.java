@@ -0,0 +1,85 @@
+package players;
+
+import snake.GameState;
+
+/**
+ * The cells that block the path of one head, kept up to date from move to move for the incremental path planners.
+ * Like AStarPlayer.isOccupied, a cell of a snake only blocks if its segment is still there when the head gets there.
+ * The planners need a graph that does not depend on the time of arrival, so the earliest possible arrival is used,
+ * the Manhattan distance from the head: a segment blocks its cell if it stays at least that many moves.
+ *
+ * After every update the cells whose status changed are listed, so a planner only has to repair around them.
+ */
+class BlockedCells {
+
+    private final int width;
+    final boolean[] blocked;
+    // The cells that are blocked now and the ones found blocked by the update in progress
+    private int[] cells;
+    private int nrCells;
+    private int[] nextCells;
+    // Marks the cells that were blocked before the update in progress
+    private final int[] mark;
+    private int markStamp;
+    private final int[] changed;
+    private int nrChanged;
+
+    BlockedCells(int width, int height) {
+        this.width = width;
+        int size = width * height;
+        blocked = new boolean[size];
+        cells = new int[size];
+        nextCells = new int[size];
+        mark = new int[size];
+        changed = new int[2 * size];
+    }
+
+    // Recomputes the blocked cells for a head on the given cell
+    void update(GameState state, int head) {
+        markStamp++;
+        nrChanged = 0;
+        for (int i = 0; i < nrCells; i++) {
+            mark[cells[i]] = markStamp;
+            blocked[cells[i]] = false;
+        }
+        int nrNextCells = 0;
+        for (int i = 0; i < state.getNrPlayers(); i++) {
+            if (state.isDead(i)) {
+                continue;
+            }
+            int size = state.getSize(i);
+            for (int j = 0; j < size; j++) {
+                int cell = state.getSegmentX(i, j) + state.getSegmentY(i, j) * width;
+                // The segment leaves its cell after size - j moves of its snake
+                if (size - j >= distance(head, cell) && !blocked[cell]) {
+                    blocked[cell] = true;
+                    nextCells[nrNextCells++] = cell;
+                    if (mark[cell] != markStamp) {
+                        changed[nrChanged++] = cell;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < nrCells; i++) {
+            if (!blocked[cells[i]]) {
+                changed[nrChanged++] = cells[i];
+            }
+        }
+        int[] swap = cells;
+        cells = nextCells;
+        nextCells = swap;
+        nrCells = nrNextCells;
+    }
+
+    int getNrChanged() {
+        return nrChanged;
+    }
+
+    int getChanged(int index) {
+        return changed[index];
+    }
+
+    int distance(int a, int b) {
+        return Math.abs(a % width - b % width) + Math.abs(a / width - b / width);
+    }
+}
@@ -0,0 +1,242 @@
+package players;
+
+import snake.GameState;
+
+import java.util.Arrays;
+
+/**
+ * Incremental shortest paths from the head of one snake to the target, with D* Lite (Koenig and Likhachev, 2002).
+ * The search runs backwards from the target, so its distances stay valid while the head moves towards it.
+ * On the next move only the cells whose blocked status changed are repaired, and the key modifier km makes up
+ * for the moved head instead of reordering the whole queue. A new target (or a head that jumped, as in a new
+ * game) starts a full search again.
+ *
+ * Which cells block the head is decided by BlockedCells. Its graph is conservative about segments that a longer
+ * path would find gone, so the planner may miss such a path; AStarPlayer falls back to its full search in that case.
+ */
+class DStarLite {
+
+    private static final int INFINITE = Integer.MAX_VALUE / 2;
+    private static final int[] MOVES = {GameState.NORTH, GameState.EAST, GameState.SOUTH, GameState.WEST};
+    private static final int[] DX = {0, 1, 0, -1};
+    private static final int[] DY = {-1, 0, 1, 0};
+
+    private final int width;
+    private final int height;
+    private final int player;
+    private final int[] g;
+    private final int[] rhs;
+    private final BlockedCells blockedCells;
+    private final boolean[] blocked;
+    // Indexed binary heap of the inconsistent cells, ordered on keys packed as k1 << 32 | k2
+    private final int[] heap;
+    private final long[] keys;
+    private final int[] heapIndex;
+    private int heapSize;
+    private int goal = -1;
+    private int start = -1;
+    private int km;
+    // Number of cells taken from the queue by the last call of getMove
+    long nodesExpanded;
+
+    DStarLite(int width, int height, int player) {
+        this.width = width;
+        this.height = height;
+        this.player = player;
+        int nrCells = width * height;
+        g = new int[nrCells];
+        rhs = new int[nrCells];
+        blockedCells = new BlockedCells(width, height);
+        blocked = blockedCells.blocked;
+        heap = new int[nrCells];
+        keys = new long[nrCells];
+        heapIndex = new int[nrCells];
+        Arrays.fill(heapIndex, -1);
+    }
+
+    /*
+     * The first move of a shortest path from the head of the player to the target,
+     * or -1 if the planner finds no path.
+     */
+    int getMove(GameState state) {
+        nodesExpanded = 0;
+        if (!state.hasTarget() || state.isDead(player)) {
+            return -1;
+        }
+        int head = state.getHeadX(player) + state.getHeadY(player) * width;
+        int target = state.getTargetX() + state.getTargetY() * width;
+        if (target != goal || start < 0 || blockedCells.distance(start, head) > 1) {
+            initialise(state, head, target);
+        }
+        else {
+            km += blockedCells.distance(start, head);
+            start = head;
+            blockedCells.update(state, start);
+            // The cost of moving onto a cell that changed changed for all its neighbours
+            for (int i = 0; i < blockedCells.getNrChanged(); i++) {
+                updateNeighbours(blockedCells.getChanged(i));
+            }
+        }
+        computeShortestPath();
+
+        int bestMove = -1;
+        int bestDistance = INFINITE;
+        for (int direction = 0; direction < 4; direction++) {
+            int next = neighbour(start, direction);
+            if (next >= 0 && !blocked[next] && g[next] < bestDistance) {
+                bestDistance = g[next];
+                bestMove = MOVES[direction];
+            }
+        }
+        return bestMove;
+    }
+
+    private void initialise(GameState state, int head, int target) {
+        for (int i = 0; i < heapSize; i++) {
+            heapIndex[heap[i]] = -1;
+        }
+        heapSize = 0;
+        Arrays.fill(g, INFINITE);
+        Arrays.fill(rhs, INFINITE);
+        goal = target;
+        start = head;
+        km = 0;
+        blockedCells.update(state, start);
+        rhs[goal] = 0;
+        push(goal, calculateKey(goal));
+    }
+
+    private void computeShortestPath() {
+        while (heapSize > 0 && (keys[heap[0]] < calculateKey(start) || rhs[start] != g[start])) {
+            int cell = heap[0];
+            long oldKey = keys[cell];
+            long newKey = calculateKey(cell);
+            nodesExpanded++;
+            if (oldKey < newKey) {
+                update(cell, newKey);
+            }
+            else if (g[cell] > rhs[cell]) {
+                g[cell] = rhs[cell];
+                remove(cell);
+                updateNeighbours(cell);
+            }
+            else {
+                g[cell] = INFINITE;
+                updateVertex(cell);
+                updateNeighbours(cell);
+            }
+        }
+    }
+
+    private void updateNeighbours(int cell) {
+        for (int direction = 0; direction < 4; direction++) {
+            int next = neighbour(cell, direction);
+            if (next >= 0) {
+                updateVertex(next);
+            }
+        }
+    }
+
+    private void updateVertex(int cell) {
+        if (cell != goal) {
+            int best = INFINITE;
+            for (int direction = 0; direction < 4; direction++) {
+                int next = neighbour(cell, direction);
+                if (next >= 0 && !blocked[next] && g[next] + 1 < best) {
+                    best = g[next] + 1;
+                }
+            }
+            rhs[cell] = best;
+        }
+        if (g[cell] != rhs[cell]) {
+            if (heapIndex[cell] >= 0) {
+                update(cell, calculateKey(cell));
+            }
+            else {
+                push(cell, calculateKey(cell));
+            }
+        }
+        else if (heapIndex[cell] >= 0) {
+            remove(cell);
+        }
+    }
+
+    private long calculateKey(int cell) {
+        long distance = Math.min(g[cell], rhs[cell]);
+        return ((distance + blockedCells.distance(start, cell) + km) << 32) | distance;
+    }
+
+    private int neighbour(int cell, int direction) {
+        int x = cell % width + DX[direction];
+        int y = cell / width + DY[direction];
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return -1;
+        }
+        return x + y * width;
+    }
+
+    private void push(int cell, long key) {
+        keys[cell] = key;
+        heap[heapSize] = cell;
+        heapIndex[cell] = heapSize;
+        siftUp(heapSize++);
+    }
+
+    private void update(int cell, long key) {
+        long oldKey = keys[cell];
+        keys[cell] = key;
+        if (key < oldKey) {
+            siftUp(heapIndex[cell]);
+        }
+        else {
+            siftDown(heapIndex[cell]);
+        }
+    }
+
+    private void remove(int cell) {
+        int index = heapIndex[cell];
+        heapIndex[cell] = -1;
+        heapSize--;
+        if (index == heapSize) {
+            return;
+        }
+        int last = heap[heapSize];
+        heap[index] = last;
+        heapIndex[last] = index;
+        siftUp(index);
+        siftDown(heapIndex[last]);
+    }
+
+    private void siftUp(int index) {
+        int cell = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (keys[heap[parent]] <= keys[cell]) {
+                break;
+            }
+            heap[index] = heap[parent];
+            heapIndex[heap[index]] = index;
+            index = parent;
+        }
+        heap[index] = cell;
+        heapIndex[cell] = index;
+    }
+
+    private void siftDown(int index) {
+        int cell = heap[index];
+        while (2 * index + 1 < heapSize) {
+            int child = 2 * index + 1;
+            if (child + 1 < heapSize && keys[heap[child + 1]] < keys[heap[child]]) {
+                child++;
+            }
+            if (keys[cell] <= keys[heap[child]]) {
+                break;
+            }
+            heap[index] = heap[child];
+            heapIndex[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = cell;
+        heapIndex[cell] = index;
+    }
+}
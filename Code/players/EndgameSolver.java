@@ -0,0 +1,503 @@
+package players;
+
+import snake.GameState;
+import snake.Snake;
+
+/**
+ * Exact solver for the end of a game between the last two snakes, once they fight over a small area.
+ * With two snakes left the players move in turn. The game is decided as by Snake.getWinner: the longest snake
+ * alive after Snake.MAX_NR_STEPS moves wins, and if both die nobody does. Outliving the other snake is therefore
+ * only a win once the survivor is sure to stay alive until the end: when it can chase its own tail, with its head
+ * next to its tail and nothing left to grow, it can go round in that circle for the rest of the game.
+ * The body of a snake that dies is taken off the board, as in the game.
+ * The solver finds out whether the player to move can force a win, cannot avoid a loss, or neither is decided
+ * within MAX_PLIES plies (a draw, which includes the end without a winner), together with the move that wins fastest,
+ * loses slowest, or keeps the draw.
+ *
+ * The area is the set of cells the heads can reach within the horizon: free cells and cells of segments that
+ * leave their cell within MAX_PLIES / 2 moves, connected to the heads. Any other cell stays blocked for the whole
+ * search. If the area holds at most 64 cells and at most MAX_FREE_CELLS of them are free, the position is
+ * solved on a bitboard of the area, with moves made and taken back in place. A target inside the area is
+ * eaten as in the game; the next target is assumed to appear outside it, as the area is small.
+ *
+ * Scores are seen from the snake to move: WIN - d for a win in d plies, -(WIN - d) for a loss in d plies,
+ * 0 for a draw. A negamax alpha-beta search deepens the horizon two plies at a time, with a cache of solved
+ * positions that is kept between moves. Like GameState.getPositionKey, a position is identified by the cells
+ * of the snakes, their heads, tails, lengths and extensions.
+ */
+class EndgameSolver {
+
+    // Free cells in the area of the two heads up to which the solver takes over
+    static final int MAX_FREE_CELLS = 20;
+    // Horizon of the search
+    static final int MAX_PLIES = 32;
+    static final int WIN = 1000;
+    private static final int[] MOVES = {GameState.NORTH, GameState.EAST, GameState.SOUTH, GameState.WEST};
+    private static final int[] DX = {0, 1, 0, -1};
+    private static final int[] DY = {-1, 0, 1, 0};
+    // As GameState.extensionsPerTarget
+    private static final int EXTENSIONS_PER_TARGET = 3;
+    private static final int CACHE_BITS = 18;
+    private static final int EXACT = 0;
+    private static final int LOWER = 1;
+    private static final int UPPER = 2;
+    private static final long SIDE_KEY = mix(1);
+    private static final long TARGET_KEY = mix(2);
+    private static final long[] DEAD_KEYS = {mix(4), mix(68)};
+
+    enum Outcome { WIN, LOSS, DRAW }
+
+    static final class Result {
+        final Outcome outcome;
+        final int move;
+        // Plies until the game is decided, or the horizon for a draw
+        final int plies;
+
+        Result(Outcome outcome, int move, int plies) {
+            this.outcome = outcome;
+            this.move = move;
+            this.plies = plies;
+        }
+    }
+
+    private final int player;
+    private TimeManager timeManager;
+    private double budgetFraction;
+    private boolean aborted;
+    private int rootMove;
+    // Free cells of the last area that could not be decided: the solver only tries again once the area has shrunk
+    private int undecidedFreeCells = Integer.MAX_VALUE;
+    // Nodes searched by the last call of solve
+    long nodes;
+
+    // The area: board cell of every area cell, area cell of every board cell (or -1), and the neighbours in the area
+    private int width;
+    private int height;
+    private final int[] boardCells = new int[64];
+    private int[] areaCells = new int[0];
+    private final int[] neighbours = new int[64 * 4];
+    private int nrCells;
+    private int nrFreeCells;
+    private long areaKey;
+
+    // The position: snake 0 is the player, snake 1 the opponent. Bodies run from tail (start) to head (end - 1),
+    // as area cells or -1 for segments outside the area. Ties in length go to the snake with the lower index in the game.
+    private final int[] gameIndices = new int[2];
+    private final boolean[] alive = new boolean[2];
+    private int rootStepsLeft;
+    private long occupied;
+    private final int[][] bodies = new int[2][];
+    private final int[] start = new int[2];
+    private final int[] end = new int[2];
+    private final int[] extensions = new int[2];
+    private int target;
+    private boolean targetPresent;
+    private long key;
+
+    // What a move changed, by ply, to take it back
+    private final long[] savedKey = new long[MAX_PLIES + 1];
+    private final long[] savedOccupied = new long[MAX_PLIES + 1];
+    private final int[] savedStart = new int[MAX_PLIES + 1];
+    private final int[] savedExtensions = new int[MAX_PLIES + 1];
+    private final boolean[] savedTargetPresent = new boolean[MAX_PLIES + 1];
+
+    private final long[] cacheKeys = new long[1 << CACHE_BITS];
+    private final long[] cacheEntries = new long[1 << CACHE_BITS];
+
+    EndgameSolver(int player) {
+        this.player = player;
+    }
+
+    /*
+     * Solves the position for the player, which is to move, until the time manager has seen the given fraction of the
+     * budget of the move pass.
+     * Returns null if the position is no small endgame, if the time ran out before the result was decisive, or if
+     * an area at least as large could not be decided before: as long as the area does not shrink, the time of the
+     * move is better left to the search.
+     */
+    Result solve(GameState state, TimeManager timeManager, double budgetFraction) {
+        nodes = 0;
+        if (!setUp(state)) {
+            undecidedFreeCells = Integer.MAX_VALUE;
+            return null;
+        }
+        if (nrFreeCells >= undecidedFreeCells) {
+            return null;
+        }
+        this.timeManager = timeManager;
+        this.budgetFraction = budgetFraction;
+        aborted = false;
+        Result result = null;
+        for (int plies = 2; plies <= MAX_PLIES; plies += 2) {
+            int score = search(0, 0, plies, -WIN, WIN);
+            if (aborted) {
+                undecidedFreeCells = nrFreeCells;
+                return null;
+            }
+            if (score != 0) {
+                return new Result(score > 0 ? Outcome.WIN : Outcome.LOSS, MOVES[rootMove], WIN - Math.abs(score));
+            }
+            result = new Result(Outcome.DRAW, MOVES[rootMove], plies);
+        }
+        undecidedFreeCells = nrFreeCells;
+        return result;
+    }
+
+    private boolean setUp(GameState state) {
+        if (state.isDead(player)) {
+            return false;
+        }
+        int opponent = -1;
+        for (int i = 0; i < state.getNrPlayers(); i++) {
+            if (i != player && !state.isDead(i)) {
+                if (opponent >= 0) {
+                    return false;
+                }
+                opponent = i;
+            }
+        }
+        rootStepsLeft = Snake.MAX_NR_STEPS - state.getStepCount();
+        if (opponent < 0 || rootStepsLeft <= 0) {
+            return false;
+        }
+        width = state.getWidth();
+        height = state.getHeight();
+        int[] snakes = {player, opponent};
+        gameIndices[0] = player;
+        gameIndices[1] = opponent;
+
+        // Cells of segments that leave within the horizon can be entered, the others stay blocked
+        boolean[] passable = new boolean[width * height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                passable[x + y * width] = !state.isOccupied(x, y);
+            }
+        }
+        for (int snake : snakes) {
+            int size = state.getSize(snake);
+            for (int j = 0; j < size; j++) {
+                if (size - j <= (MAX_PLIES + 1) / 2) {
+                    passable[state.getSegmentX(snake, j) + state.getSegmentY(snake, j) * width] = true;
+                }
+            }
+        }
+
+        if (areaCells.length != width * height) {
+            areaCells = new int[width * height];
+        }
+        java.util.Arrays.fill(areaCells, -1);
+        nrCells = 0;
+        int nrFree = 0;
+        for (int snake : snakes) {
+            int head = state.getHeadX(snake) + state.getHeadY(snake) * width;
+            if (areaCells[head] < 0) {
+                areaCells[head] = nrCells;
+                boardCells[nrCells++] = head;
+            }
+        }
+        for (int i = 0; i < nrCells; i++) {
+            int cell = boardCells[i];
+            for (int direction = 0; direction < 4; direction++) {
+                int next = neighbour(cell, direction);
+                if (next < 0 || !passable[next] || areaCells[next] >= 0) {
+                    continue;
+                }
+                if (nrCells == boardCells.length) {
+                    return false;
+                }
+                if (!state.isOccupied(next % width, next / width) && ++nrFree > MAX_FREE_CELLS) {
+                    return false;
+                }
+                areaCells[next] = nrCells;
+                boardCells[nrCells++] = next;
+            }
+        }
+        nrFreeCells = nrFree;
+        areaKey = 0;
+        for (int i = 0; i < nrCells; i++) {
+            areaKey ^= mix(3 + 4L * boardCells[i]);
+            for (int direction = 0; direction < 4; direction++) {
+                int next = neighbour(boardCells[i], direction);
+                neighbours[4 * i + direction] = next < 0 ? -1 : areaCells[next];
+            }
+        }
+
+        occupied = 0;
+        key = areaKey;
+        for (int s = 0; s < 2; s++) {
+            int size = state.getSize(snakes[s]);
+            if (bodies[s] == null || bodies[s].length < size + MAX_PLIES) {
+                bodies[s] = new int[size + MAX_PLIES];
+            }
+            start[s] = 0;
+            end[s] = 0;
+            for (int j = size - 1; j >= 0; j--) {
+                int cell = areaCells[state.getSegmentX(snakes[s], j) + state.getSegmentY(snakes[s], j) * width];
+                bodies[s][end[s]++] = cell;
+                if (cell >= 0) {
+                    occupied |= 1L << cell;
+                    key ^= bodyKey(s, cell);
+                }
+            }
+            extensions[s] = state.getNrExtensionsLeft(snakes[s]);
+            alive[s] = true;
+            key ^= headKey(s, bodies[s][end[s] - 1]) ^ tailKey(s, bodies[s][start[s]])
+                    ^ lengthKey(s, size) ^ extensionsKey(s, extensions[s]);
+        }
+        target = state.hasTarget() ? areaCells[state.getTargetX() + state.getTargetY() * width] : -1;
+        targetPresent = target >= 0;
+        if (targetPresent) {
+            key ^= TARGET_KEY ^ mix(5 + 4L * target);
+        }
+        return true;
+    }
+
+    private int search(int ply, int mover, int pliesLeft, int alpha, int beta) {
+        nodes++;
+        timeManager.countNode();
+        if ((nodes & 1023) == 0 && (timeManager.isPast(budgetFraction) || timeManager.isTimeUp())) {
+            aborted = true;
+        }
+        if (aborted) {
+            return 0;
+        }
+        int stepsLeft = rootStepsLeft - ply;
+        if (stepsLeft == 0) {
+            return getFinalScore(mover);
+        }
+        if (!alive[1 - mover] && isChasingTail(mover)) {
+            return WIN;
+        }
+        if (pliesLeft == 0) {
+            return 0;
+        }
+
+        // Near the end of the game the same position is worth something else with every step, so the steps are part of the key.
+        // Further away, no search from the position reaches the end.
+        long nodeKey = mover == 0 ? key : key ^ SIDE_KEY;
+        if (stepsLeft <= MAX_PLIES) {
+            nodeKey ^= mix(6 + 64L * stepsLeft);
+        }
+        int slot = (int) (nodeKey >>> (64 - CACHE_BITS));
+        int hint = -1;
+        if (cacheKeys[slot] == nodeKey) {
+            long entry = cacheEntries[slot];
+            int score = (int) entry;
+            int depth = (int) (entry >>> 32) & 0xff;
+            int bound = (int) (entry >>> 40) & 3;
+            hint = (int) (entry >>> 42) & 3;
+            // A decided game stays decided with more plies left; one decided later than the plies left is a draw.
+            // The root is always searched, for its best move, and only takes its move order from the cache.
+            if (ply > 0 && bound == EXACT) {
+                if (score != 0 && WIN - Math.abs(score) <= pliesLeft) {
+                    return score;
+                }
+                if (depth >= pliesLeft) {
+                    return 0;
+                }
+            }
+            else if (ply > 0 && depth == pliesLeft) {
+                if (bound == LOWER && score >= beta || bound == UPPER && score <= alpha) {
+                    return score;
+                }
+            }
+        }
+
+        int originalAlpha = alpha;
+        int best = -WIN;
+        int bestMove = 0;
+        for (int i = 0; i < 4; i++) {
+            // The move that was best before goes first
+            int direction = hint < 0 ? i : i == 0 ? hint : i <= hint ? i - 1 : i;
+            // The child's score is one ply further from the end; the windows are widened to allow for that.
+            // Once one snake is dead, the other one moves on its own.
+            int score;
+            if (!makeMove(ply, mover, direction)) {
+                if (!alive[1 - mover]) {
+                    // Nobody is left, so nobody wins
+                    score = 0;
+                }
+                else {
+                    kill(ply, mover);
+                    score = backUp(search(ply + 1, 1 - mover, pliesLeft - 1, -beta - 1, -alpha + 1));
+                    revive(ply, mover);
+                }
+            }
+            else {
+                if (alive[1 - mover]) {
+                    score = backUp(search(ply + 1, 1 - mover, pliesLeft - 1, -beta - 1, -alpha + 1));
+                }
+                else {
+                    score = delay(search(ply + 1, mover, pliesLeft - 1, alpha - 1, beta + 1));
+                }
+                undoMove(ply, mover);
+            }
+            if (score > best) {
+                best = score;
+                bestMove = direction;
+            }
+            alpha = Math.max(alpha, best);
+            if (alpha >= beta) {
+                break;
+            }
+        }
+        if (aborted) {
+            return 0;
+        }
+        if (ply == 0) {
+            rootMove = bestMove;
+        }
+        int bound = best <= originalAlpha ? UPPER : best >= beta ? LOWER : EXACT;
+        cacheKeys[slot] = nodeKey;
+        cacheEntries[slot] = (best & 0xffffffffL) | (long) pliesLeft << 32 | (long) bound << 40 | (long) bestMove << 42;
+        return best;
+    }
+
+    // The score of a child seen from its parent: the other snake's view, one ply further from the end
+    private static int backUp(int score) {
+        return score > 0 ? -score + 1 : score < 0 ? -score - 1 : 0;
+    }
+
+    // The score of a child where the same snake moves again, one ply further from the end
+    private static int delay(int score) {
+        return score > 0 ? score - 1 : score < 0 ? score + 1 : 0;
+    }
+
+    // The score of the snake to move once the game has run out of steps: the longest snake alive wins
+    private int getFinalScore(int mover) {
+        if (!alive[1 - mover]) {
+            return WIN;
+        }
+        int length = end[mover] - start[mover];
+        int otherLength = end[1 - mover] - start[1 - mover];
+        boolean wins = length > otherLength || length == otherLength && gameIndices[mover] < gameIndices[1 - mover];
+        return wins ? WIN : -WIN;
+    }
+
+    // Whether the head of the snake is next to its tail with nothing left to grow, so that it can follow its tail forever
+    private boolean isChasingTail(int snake) {
+        int tail = bodies[snake][start[snake]];
+        int head = bodies[snake][end[snake] - 1];
+        if (extensions[snake] > 0 || tail < 0 || end[snake] - start[snake] < 2) {
+            return false;
+        }
+        for (int direction = 0; direction < 4; direction++) {
+            if (neighbours[4 * head + direction] == tail) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Takes the body of a snake that died off the board, as the game does
+    private void kill(int ply, int snake) {
+        savedKey[ply] = key;
+        savedOccupied[ply] = occupied;
+        alive[snake] = false;
+        for (int j = start[snake]; j < end[snake]; j++) {
+            if (bodies[snake][j] >= 0) {
+                occupied &= ~(1L << bodies[snake][j]);
+            }
+        }
+        key ^= DEAD_KEYS[snake];
+    }
+
+    private void revive(int ply, int snake) {
+        key = savedKey[ply];
+        occupied = savedOccupied[ply];
+        alive[snake] = true;
+    }
+
+    // Moves the head of the snake, as GameState.updatePlayerPosition does. Returns false, changing nothing, if the snake dies.
+    private boolean makeMove(int ply, int snake, int direction) {
+        int[] body = bodies[snake];
+        int head = body[end[snake] - 1];
+        int next = neighbours[4 * head + direction];
+        if (next < 0) {
+            return false;
+        }
+        savedKey[ply] = key;
+        savedOccupied[ply] = occupied;
+        savedStart[ply] = start[snake];
+        savedExtensions[ply] = extensions[snake];
+        savedTargetPresent[ply] = targetPresent;
+
+        key ^= headKey(snake, head) ^ tailKey(snake, body[start[snake]])
+                ^ lengthKey(snake, end[snake] - start[snake]) ^ extensionsKey(snake, extensions[snake]);
+        if (extensions[snake] > 0) {
+            extensions[snake]--;
+        }
+        else {
+            int tail = body[start[snake]++];
+            if (tail >= 0) {
+                occupied &= ~(1L << tail);
+                key ^= bodyKey(snake, tail);
+            }
+        }
+        if ((occupied & 1L << next) != 0) {
+            restore(ply, snake);
+            return false;
+        }
+        body[end[snake]++] = next;
+        occupied |= 1L << next;
+        key ^= bodyKey(snake, next);
+        if (targetPresent && next == target) {
+            targetPresent = false;
+            extensions[snake] += EXTENSIONS_PER_TARGET;
+            key ^= TARGET_KEY ^ mix(5 + 4L * target);
+        }
+        key ^= headKey(snake, next) ^ tailKey(snake, body[start[snake]])
+                ^ lengthKey(snake, end[snake] - start[snake]) ^ extensionsKey(snake, extensions[snake]);
+        return true;
+    }
+
+    private void undoMove(int ply, int snake) {
+        end[snake]--;
+        restore(ply, snake);
+    }
+
+    private void restore(int ply, int snake) {
+        key = savedKey[ply];
+        occupied = savedOccupied[ply];
+        start[snake] = savedStart[ply];
+        extensions[snake] = savedExtensions[ply];
+        targetPresent = savedTargetPresent[ply];
+    }
+
+    private int neighbour(int cell, int direction) {
+        int x = cell % width + DX[direction];
+        int y = cell / width + DY[direction];
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return -1;
+        }
+        return x + y * width;
+    }
+
+    private long bodyKey(int snake, int cell) {
+        return mix(16 + 64L * (2 * boardCells[cell] + snake));
+    }
+
+    private long headKey(int snake, int cell) {
+        return mix(17 + 64L * (2 * (cell < 0 ? -1 : boardCells[cell]) + snake));
+    }
+
+    private long tailKey(int snake, int cell) {
+        return mix(18 + 64L * (2 * (cell < 0 ? -1 : boardCells[cell]) + snake));
+    }
+
+    private static long lengthKey(int snake, int length) {
+        return mix(19 + 64L * (2 * length + snake));
+    }
+
+    private static long extensionsKey(int snake, int extensions) {
+        return mix(20 + 64L * (2 * extensions + snake));
+    }
+
+    // Finaliser of SplitMix64, spreads the features over the whole key
+    private static long mix(long value) {
+        long z = value * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
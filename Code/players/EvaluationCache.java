@@ -0,0 +1,92 @@
+package players;
+
+/**
+ * Fixed size cache of evaluated states, keyed by GameState.getPositionKey().
+ * It holds one value per player for every cached position, so a position reached through different move orders,
+ * or by a sibling branch, is evaluated only once for each player.
+ *
+ * The table is split into small sets of slots. A key can only live in its own set, and when the set is full
+ * the slot to replace is chosen with the CLOCK algorithm: the hand skips slots that were used since it last
+ * passed them, clearing their reference bit, and evicts the first one that was not.
+ */
+class EvaluationCache {
+
+    private static final int WAYS = 4;
+
+    private final int nrPlayers;
+    private final int setMask;
+    private final long[] keys;
+    private final boolean[] used;
+    private final boolean[] referenced;
+    private final double[] values;
+    private final byte[] hands;
+
+    // The capacity is rounded up to a power of two
+    EvaluationCache(int capacity, int nrPlayers) {
+        int nrSets = Integer.highestOneBit(Math.max(1, capacity / WAYS - 1)) << 1;
+        this.nrPlayers = nrPlayers;
+        setMask = nrSets - 1;
+        keys = new long[nrSets * WAYS];
+        used = new boolean[nrSets * WAYS];
+        referenced = new boolean[nrSets * WAYS];
+        values = new double[nrSets * WAYS * nrPlayers];
+        hands = new byte[nrSets];
+    }
+
+    // Returns the cached value of the position for the player, or null if it is not cached
+    Double get(long key, int playerIndex) {
+        int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        double value = values[slot * nrPlayers + playerIndex];
+        if (Double.isNaN(value)) {
+            return null;
+        }
+        referenced[slot] = true;
+        return value;
+    }
+
+    void put(long key, int playerIndex, double value) {
+        int slot = find(key);
+        if (slot < 0) {
+            slot = evict(key);
+        }
+        referenced[slot] = true;
+        values[slot * nrPlayers + playerIndex] = value;
+    }
+
+    private int find(long key) {
+        int first = setOf(key) * WAYS;
+        for (int slot = first; slot < first + WAYS; slot++) {
+            if (used[slot] && keys[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int evict(long key) {
+        int set = setOf(key);
+        int first = set * WAYS;
+        int slot;
+        while (true) {
+            slot = first + hands[set];
+            hands[set] = (byte) ((hands[set] + 1) % WAYS);
+            if (!used[slot] || !referenced[slot]) {
+                break;
+            }
+            referenced[slot] = false;
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        for (int i = 0; i < nrPlayers; i++) {
+            values[slot * nrPlayers + i] = Double.NaN;
+        }
+        return slot;
+    }
+
+    private int setOf(long key) {
+        return (int) (key ^ (key >>> 32)) & setMask;
+    }
+}
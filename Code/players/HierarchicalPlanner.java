@@ -0,0 +1,369 @@
+package players;
+
+import snake.GameState;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Hierarchical path planning (HPA*, Botea, Mueller and Schaeffer, 2004) for large boards, where even an incremental
+ * search over every cell would grow with the size of the board.
+ *
+ * The board is cut into square clusters. Where two neighbouring clusters share a run of free cells along their border,
+ * the run gets one or two transitions: pairs of facing cells, one in each cluster, that become entrance nodes of the
+ * abstract graph. Entrances of the same cluster are joined by edges weighted with their distance inside the cluster.
+ * To plan a move, the head and the target are connected to the entrances of their clusters, the abstract graph is
+ * searched with A*, and only the first hop is refined to a move: the breadth-first search from the head that connects
+ * it also gives the first step towards that hop.
+ *
+ * Cells are blocked as decided by BlockedCells. Between moves only the clusters with a changed cell are rebuilt,
+ * together with the neighbours whose shared border changed.
+ */
+class HierarchicalPlanner {
+
+    static final int CLUSTER_SIZE = 16;
+    // Runs of free border cells at least this long get a transition at both ends instead of one in the middle
+    private static final int LONG_ENTRANCE = 6;
+    private static final int INFINITE = Integer.MAX_VALUE / 2;
+    private static final int[] MOVES = {GameState.NORTH, GameState.EAST, GameState.SOUTH, GameState.WEST};
+    private static final int[] DX = {0, 1, 0, -1};
+    private static final int[] DY = {-1, 0, 1, 0};
+
+    private final int width;
+    private final int height;
+    private final int player;
+    private final int clustersX;
+    private final int clustersY;
+    private final BlockedCells blockedCells;
+    private final boolean[] blocked;
+    // Transitions as pairs of cells, {left, right} for the border east of a cluster, {top, bottom} for the one south of it
+    private final int[][] eastTransitions;
+    private final int[][] southTransitions;
+    // Entrance cells of every cluster and their distances to each other inside the cluster, row by row
+    private final int[][] entrances;
+    private final int[][] entranceDistances;
+    // Index of a cell in the entrances of its cluster, or -1
+    private final int[] entranceIndex;
+    private final boolean[] dirty;
+    private int lastHead = -1;
+
+    // Scratch space for the breadth-first searches and the abstract search, reset through stamps
+    private final int[] queue;
+    private final int[] bfsDistance;
+    private final int[] bfsFirstMove;
+    private final int[] bfsStamp;
+    private int bfsRun;
+    private final int[] gScore;
+    private final int[] firstHop;
+    private final int[] searchStamp;
+    private int searchRun;
+    // Number of cells and abstract nodes visited by the last call of getMove
+    long nodesExpanded;
+
+    HierarchicalPlanner(int width, int height, int player) {
+        this.width = width;
+        this.height = height;
+        this.player = player;
+        clustersX = (width + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        clustersY = (height + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        int nrCells = width * height;
+        int nrClusters = clustersX * clustersY;
+        blockedCells = new BlockedCells(width, height);
+        blocked = blockedCells.blocked;
+        eastTransitions = new int[nrClusters][];
+        southTransitions = new int[nrClusters][];
+        entrances = new int[nrClusters][];
+        entranceDistances = new int[nrClusters][];
+        entranceIndex = new int[nrCells];
+        Arrays.fill(entranceIndex, -1);
+        dirty = new boolean[nrClusters];
+        queue = new int[nrCells];
+        bfsDistance = new int[nrCells];
+        bfsFirstMove = new int[nrCells];
+        bfsStamp = new int[nrCells];
+        gScore = new int[nrCells];
+        firstHop = new int[nrCells];
+        searchStamp = new int[nrCells];
+    }
+
+    /*
+     * The first move of a path from the head of the player to the target through the abstract graph,
+     * or -1 if there is none.
+     */
+    int getMove(GameState state) {
+        nodesExpanded = 0;
+        if (!state.hasTarget() || state.isDead(player)) {
+            return -1;
+        }
+        int head = state.getHeadX(player) + state.getHeadY(player) * width;
+        int target = state.getTargetX() + state.getTargetY() * width;
+        blockedCells.update(state, head);
+        if (lastHead < 0 || blockedCells.distance(lastHead, head) > 1) {
+            Arrays.fill(dirty, true);
+        }
+        else {
+            for (int i = 0; i < blockedCells.getNrChanged(); i++) {
+                int cell = blockedCells.getChanged(i);
+                dirty[clusterOf(cell % width, cell / width)] = true;
+            }
+        }
+        lastHead = head;
+        rebuildDirtyClusters();
+        return search(head, target);
+    }
+
+    private int clusterOf(int x, int y) {
+        return x / CLUSTER_SIZE + (y / CLUSTER_SIZE) * clustersX;
+    }
+
+    /*
+     * Recomputes the transitions on the borders of the dirty clusters, then the entrances and distances of the dirty
+     * clusters and of the neighbours on the other side of a border whose transitions changed.
+     */
+    private void rebuildDirtyClusters() {
+        boolean[] rebuild = dirty.clone();
+        for (int cy = 0; cy < clustersY; cy++) {
+            for (int cx = 0; cx < clustersX; cx++) {
+                int cluster = cx + cy * clustersX;
+                if (cx + 1 < clustersX && (dirty[cluster] || dirty[cluster + 1])) {
+                    int[] transitions = findTransitions(cx, cy, true);
+                    if (!Arrays.equals(transitions, eastTransitions[cluster])) {
+                        eastTransitions[cluster] = transitions;
+                        rebuild[cluster] = rebuild[cluster + 1] = true;
+                    }
+                }
+                if (cy + 1 < clustersY && (dirty[cluster] || dirty[cluster + clustersX])) {
+                    int[] transitions = findTransitions(cx, cy, false);
+                    if (!Arrays.equals(transitions, southTransitions[cluster])) {
+                        southTransitions[cluster] = transitions;
+                        rebuild[cluster] = rebuild[cluster + clustersX] = true;
+                    }
+                }
+            }
+        }
+        for (int cluster = 0; cluster < rebuild.length; cluster++) {
+            if (rebuild[cluster]) {
+                buildEntrances(cluster);
+            }
+        }
+        Arrays.fill(dirty, false);
+    }
+
+    // The transitions across the border east (or south) of a cluster, as pairs of facing cells
+    private int[] findTransitions(int cx, int cy, boolean east) {
+        int length = east ? Math.min(CLUSTER_SIZE, height - cy * CLUSTER_SIZE) : Math.min(CLUSTER_SIZE, width - cx * CLUSTER_SIZE);
+        int[] transitions = new int[4 * length];
+        int nrTransitions = 0;
+        int runStart = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean open = i < length && !blocked[borderCell(cx, cy, east, i, false)] && !blocked[borderCell(cx, cy, east, i, true)];
+            if (open && runStart < 0) {
+                runStart = i;
+            }
+            else if (!open && runStart >= 0) {
+                int runEnd = i - 1;
+                if (runEnd - runStart + 1 >= LONG_ENTRANCE) {
+                    transitions[nrTransitions++] = borderCell(cx, cy, east, runStart, false);
+                    transitions[nrTransitions++] = borderCell(cx, cy, east, runStart, true);
+                    transitions[nrTransitions++] = borderCell(cx, cy, east, runEnd, false);
+                    transitions[nrTransitions++] = borderCell(cx, cy, east, runEnd, true);
+                }
+                else {
+                    int middle = (runStart + runEnd) / 2;
+                    transitions[nrTransitions++] = borderCell(cx, cy, east, middle, false);
+                    transitions[nrTransitions++] = borderCell(cx, cy, east, middle, true);
+                }
+                runStart = -1;
+            }
+        }
+        return Arrays.copyOf(transitions, nrTransitions);
+    }
+
+    // A cell along the border east (or south) of a cluster, on this side of it or on the far side
+    private int borderCell(int cx, int cy, boolean east, int offset, boolean farSide) {
+        if (east) {
+            int x = (cx + 1) * CLUSTER_SIZE - (farSide ? 0 : 1);
+            return x + (cy * CLUSTER_SIZE + offset) * width;
+        }
+        int y = (cy + 1) * CLUSTER_SIZE - (farSide ? 0 : 1);
+        return cx * CLUSTER_SIZE + offset + y * width;
+    }
+
+    // Collects the entrances of a cluster from the transitions on its four borders and measures their distances
+    private void buildEntrances(int cluster) {
+        if (entrances[cluster] != null) {
+            for (int cell : entrances[cluster]) {
+                entranceIndex[cell] = -1;
+            }
+        }
+        int cx = cluster % clustersX;
+        int cy = cluster / clustersX;
+        int[] cells = new int[8 * CLUSTER_SIZE];
+        int nrEntrances = 0;
+        int[][] borders = {eastTransitions[cluster], cx > 0 ? eastTransitions[cluster - 1] : null,
+                southTransitions[cluster], cy > 0 ? southTransitions[cluster - clustersX] : null};
+        for (int[] transitions : borders) {
+            if (transitions == null) {
+                continue;
+            }
+            for (int cell : transitions) {
+                if (clusterOf(cell % width, cell / width) == cluster && entranceIndex[cell] < 0) {
+                    entranceIndex[cell] = nrEntrances;
+                    cells[nrEntrances++] = cell;
+                }
+            }
+        }
+        entrances[cluster] = Arrays.copyOf(cells, nrEntrances);
+        int[] distances = new int[nrEntrances * nrEntrances];
+        for (int i = 0; i < nrEntrances; i++) {
+            breadthFirstSearch(cells[i], cluster, cluster);
+            for (int j = 0; j < nrEntrances; j++) {
+                distances[i * nrEntrances + j] = reachedDistance(cells[j]);
+            }
+        }
+        entranceDistances[cluster] = distances;
+    }
+
+    /*
+     * Breadth-first search from a cell through the free cells of the clusters in the rectangle between two clusters.
+     * Records the distance of every cell it reaches and the first step towards it.
+     */
+    private void breadthFirstSearch(int from, int firstCluster, int lastCluster) {
+        int minX = (firstCluster % clustersX) * CLUSTER_SIZE;
+        int minY = (firstCluster / clustersX) * CLUSTER_SIZE;
+        int maxX = Math.min(width, (lastCluster % clustersX + 1) * CLUSTER_SIZE);
+        int maxY = Math.min(height, (lastCluster / clustersX + 1) * CLUSTER_SIZE);
+        bfsRun++;
+        bfsStamp[from] = bfsRun;
+        bfsDistance[from] = 0;
+        bfsFirstMove[from] = -1;
+        queue[0] = from;
+        int queueStart = 0;
+        int queueEnd = 1;
+        while (queueStart < queueEnd) {
+            int cell = queue[queueStart++];
+            nodesExpanded++;
+            for (int direction = 0; direction < 4; direction++) {
+                int x = cell % width + DX[direction];
+                int y = cell / width + DY[direction];
+                if (x < minX || x >= maxX || y < minY || y >= maxY) {
+                    continue;
+                }
+                int next = x + y * width;
+                if (blocked[next] || bfsStamp[next] == bfsRun) {
+                    continue;
+                }
+                bfsStamp[next] = bfsRun;
+                bfsDistance[next] = bfsDistance[cell] + 1;
+                bfsFirstMove[next] = cell == from ? MOVES[direction] : bfsFirstMove[cell];
+                queue[queueEnd++] = next;
+            }
+        }
+    }
+
+    private int reachedDistance(int cell) {
+        return bfsStamp[cell] == bfsRun ? bfsDistance[cell] : INFINITE;
+    }
+
+    /*
+     * A* over the entrances, from the head to the target. The head is joined to the entrances it reaches within the
+     * clusters around it, the target to the entrances of its own cluster.
+     */
+    private int search(int head, int target) {
+        int targetCluster = clusterOf(target % width, target / width);
+        int[] targetEntrances = entrances[targetCluster];
+        int[] targetDistances = new int[targetEntrances.length];
+        breadthFirstSearch(target, targetCluster, targetCluster);
+        for (int i = 0; i < targetEntrances.length; i++) {
+            targetDistances[i] = reachedDistance(targetEntrances[i]);
+        }
+
+        // The clusters around the head, so that a head on the edge of its cluster can also leave it right away
+        int headX = head % width;
+        int headY = head / width;
+        int firstCluster = clusterOf(Math.max(0, headX - 1), Math.max(0, headY - 1));
+        int lastCluster = clusterOf(Math.min(width - 1, headX + 1), Math.min(height - 1, headY + 1));
+        breadthFirstSearch(head, firstCluster, lastCluster);
+        int headRun = bfsRun;
+
+        searchRun++;
+        PriorityQueue<long[]> frontier = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        if (bfsStamp[target] == headRun) {
+            relax(frontier, target, bfsDistance[target], target, target);
+        }
+        for (int cy = firstCluster / clustersX; cy <= lastCluster / clustersX; cy++) {
+            for (int cx = firstCluster % clustersX; cx <= lastCluster % clustersX; cx++) {
+                for (int cell : entrances[cx + cy * clustersX]) {
+                    if (bfsStamp[cell] == headRun && cell != head) {
+                        relax(frontier, cell, bfsDistance[cell], cell, target);
+                    }
+                }
+            }
+        }
+
+        while (!frontier.isEmpty()) {
+            long[] entry = frontier.poll();
+            int cell = (int) entry[1];
+            int distance = (int) entry[2];
+            if (distance > gScore[cell]) {
+                continue;
+            }
+            nodesExpanded++;
+            if (cell == target) {
+                return bfsStampedFirstMove(firstHop[cell], headRun);
+            }
+            int cluster = clusterOf(cell % width, cell / width);
+            int index = entranceIndex[cell];
+            int[] clusterEntrances = entrances[cluster];
+            int nrEntrances = clusterEntrances.length;
+            for (int j = 0; j < nrEntrances; j++) {
+                int edge = entranceDistances[cluster][index * nrEntrances + j];
+                if (edge < INFINITE) {
+                    relax(frontier, clusterEntrances[j], distance + edge, firstHop[cell], target);
+                }
+            }
+            if (cluster == targetCluster && targetDistances[index] < INFINITE) {
+                relax(frontier, target, distance + targetDistances[index], firstHop[cell], target);
+            }
+            relaxAcross(frontier, cell, distance, target);
+        }
+        return -1;
+    }
+
+    // Follows the transitions that start at an entrance to the facing cells in the neighbouring clusters
+    private void relaxAcross(PriorityQueue<long[]> frontier, int cell, int distance, int target) {
+        int cluster = clusterOf(cell % width, cell / width);
+        int cx = cluster % clustersX;
+        int cy = cluster / clustersX;
+        int[][] borders = {eastTransitions[cluster], cx > 0 ? eastTransitions[cluster - 1] : null,
+                southTransitions[cluster], cy > 0 ? southTransitions[cluster - clustersX] : null};
+        for (int[] transitions : borders) {
+            if (transitions == null) {
+                continue;
+            }
+            for (int i = 0; i < transitions.length; i += 2) {
+                if (transitions[i] == cell) {
+                    relax(frontier, transitions[i + 1], distance + 1, firstHop[cell], target);
+                }
+                else if (transitions[i + 1] == cell) {
+                    relax(frontier, transitions[i], distance + 1, firstHop[cell], target);
+                }
+            }
+        }
+    }
+
+    private void relax(PriorityQueue<long[]> frontier, int cell, int distance, int hop, int target) {
+        if (searchStamp[cell] == searchRun && gScore[cell] <= distance) {
+            return;
+        }
+        searchStamp[cell] = searchRun;
+        gScore[cell] = distance;
+        firstHop[cell] = hop;
+        frontier.add(new long[]{distance + blockedCells.distance(cell, target), cell, distance});
+    }
+
+    // The first step from the head towards a cell reached by the breadth-first search of the given run
+    private int bfsStampedFirstMove(int cell, int run) {
+        return bfsStamp[cell] == run ? bfsFirstMove[cell] : -1;
+    }
+}
@@ -14,7 +14,8 @@ import java.awt.event.KeyListener;
  */
 public class HumanPlayer extends SnakePlayer implements KeyListener {
 
-  
+    private final TurnQueue turns = new TurnQueue();
+
     public HumanPlayer(GameState state, int index, Snake game) {
         super(state, index, game);      
     }
@@ -28,31 +29,54 @@ public class HumanPlayer extends SnakePlayer implements KeyListener {
     }
 
    /*
-    * Remeber the last arrow key that was pressed to determine the direction of the next move
-    * If this key corresponds to the opposite of the current direction, it is ignored as that 
-    * would mean a guaranteed death (it suggests the player pressed the key to fast when trying
-    * to make a u-turn).
+    * Queue the arrow keys that are pressed, to be applied one per move by doMove on the game thread.
+    * This way several quick presses, such as the two turns of a fast u-turn, each take effect on their own move
+    * instead of overwriting each other. A key that repeats or reverses the last queued turn is ignored, as that
+    * would be a no-op or a guaranteed death (it suggests the player pressed the key twice or too fast).
     */
     public void keyPressed(KeyEvent e) {
-        int lastOrientation = state.getLastOrientation(index);
-        if (e.getKeyCode() == KeyEvent.VK_UP && lastOrientation!= GameState.SOUTH) {            
-            state.setOrientation(index,GameState.NORTH);                   
+        int direction;
+        if (e.getKeyCode() == KeyEvent.VK_UP) {
+            direction = GameState.NORTH;
+        }
+        else if(e.getKeyCode() == KeyEvent.VK_DOWN) {
+            direction = GameState.SOUTH;
+        }
+        else if(e.getKeyCode() == KeyEvent.VK_RIGHT) {
+            direction = GameState.EAST;
         }
-        else if(e.getKeyCode() == KeyEvent.VK_DOWN && lastOrientation!= GameState.NORTH) {
-            state.setOrientation(index,GameState.SOUTH);                   
+        else if(e.getKeyCode() == KeyEvent.VK_LEFT) {
+            direction = GameState.WEST;
         }
-        else if(e.getKeyCode() == KeyEvent.VK_RIGHT && lastOrientation!= GameState.WEST) {
-            state.setOrientation(index,GameState.EAST);                   
+        else {
+            return;
         }
-        else if(e.getKeyCode() == KeyEvent.VK_LEFT && lastOrientation!= GameState.EAST) {            
-            state.setOrientation(index,GameState.WEST);                   
+        int lastQueued = turns.peekLastOffered();
+        if (lastQueued != direction && lastQueued != opposite(direction)) {
+            turns.offer(direction);
         }
     }
 
     public void keyReleased(KeyEvent e) {
     }
 
+    /*
+     * Apply the next queued turn, skipping any that would reverse the current direction.
+     * Without queued turns the snake keeps going in the same direction.
+     */
     @Override
     public void doMove() {
+        int lastOrientation = state.getLastOrientation(index);
+        int direction;
+        while ((direction = turns.poll()) >= 0) {
+            if (direction != opposite(lastOrientation)) {
+                state.setOrientation(index, direction);
+                return;
+            }
+        }
+    }
+
+    private static int opposite(int direction) {
+        return (direction + 1) % 4 + 1;
     }
 }
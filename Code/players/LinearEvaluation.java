@@ -0,0 +1,60 @@
+package players;
+
+/**
+ * Weights of the linear evaluation used by the minimax players.
+ * The value of a state for a living player is the weighted sum of its features:
+ *     LENGTH_DIFFERENCE: signed difference in length with the longest enemy
+ *     TARGET_PROXIMITY:  1 / distance to the target
+ * The default weights are the original hand-picked evaluation; tuned weights come from WeightTuner.
+ */
+public class LinearEvaluation {
+
+    public static final int LENGTH_DIFFERENCE = 0;
+    public static final int TARGET_PROXIMITY = 1;
+    public static final int NR_FEATURES = 2;
+
+    public static final LinearEvaluation DEFAULT = new LinearEvaluation(new double[]{1, 1});
+
+    private final double[] weights;
+
+    public LinearEvaluation(double[] weights) {
+        if (weights.length != NR_FEATURES) {
+            throw new IllegalArgumentException("Expected " + NR_FEATURES + " weights");
+        }
+        this.weights = weights.clone();
+    }
+
+    public double getWeight(int feature) {
+        return weights[feature];
+    }
+
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    public double evaluate(int lengthDifference, int targetDistance) {
+        return weights[LENGTH_DIFFERENCE] * lengthDifference + weights[TARGET_PROXIMITY] / targetDistance;
+    }
+
+    // Parses weights written by toString, e.g. "1.0,0.5"
+    public static LinearEvaluation parse(String text) {
+        String[] parts = text.split(",");
+        double[] weights = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            weights[i] = Double.parseDouble(parts[i]);
+        }
+        return new LinearEvaluation(weights);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < weights.length; i++) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(weights[i]);
+        }
+        return text.toString();
+    }
+}
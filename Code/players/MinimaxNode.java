@@ -1,17 +1,40 @@
 package players;
 
 import snake.GameState;
+import snake.SearchArena;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 public class MinimaxNode {
 
+    // How the children of a chance node (a state without target) are generated:
+    //     SAMPLED: a few random targets, where samples that hit the same cell share one child
+    //     EXACT:   one child for every class of equivalent free cells (see getTargetProfile), weighted by the size of the class
+    public enum ChanceMode { SAMPLED, EXACT }
+
     private GameState state;
     private int currentPlayer;
+    private ChanceMode chanceMode;
+    // Probability of reaching this node from its parent, only below 1 for the children of a chance node
+    private double probability = 1;
     private static final int RANDOM_SAMPLE_COUNT = 5;
-    private static final int[] ALL_POSSIBLE_MOVES = {GameState.NORTH, GameState.EAST, GameState.SOUTH, GameState.WEST};
+    // At most this many children at an exact chance node, so that it stays cheaper than sampling
+    private static final int MAX_TARGET_CLASSES = RANDOM_SAMPLE_COUNT - 1;
+    static final int[] ALL_POSSIBLE_MOVES = {GameState.NORTH, GameState.EAST, GameState.SOUTH, GameState.WEST};
 
     public MinimaxNode(GameState state, int currentPlayer) {
+        this(state, currentPlayer, ChanceMode.SAMPLED);
+    }
+
+    public MinimaxNode(GameState state, int currentPlayer, ChanceMode chanceMode) {
         this.state = state;
         this.currentPlayer = currentPlayer;
+        this.chanceMode = chanceMode;
     }
 
 
@@ -20,46 +43,214 @@ public class MinimaxNode {
     }
     public GameState getGameState() { return state; }
     public boolean isChanceNode() { return !state.hasTarget(); }
+    public double getProbability() { return probability; }
 
 
     public MinimaxNode[] GenerateChildNodes() {
 
         MinimaxNode[] childNodes;
 
-        // Generates a set number of sample possibilities as children.
+        // Generates one child per sampled target, or one per class of equivalent targets over all free cells.
         // Current player is not updated on the new nodes because no player action is taken.
         if (isChanceNode()) {
 
-            childNodes = new MinimaxNode[RANDOM_SAMPLE_COUNT];
-
-            for (int i = 0; i < RANDOM_SAMPLE_COUNT; i++) {
-                GameState newState = new GameState(state);
-                newState.chooseNextTarget();
-                childNodes[i] = new MinimaxNode(newState, currentPlayer);
-            }
+            childNodes = chanceMode == ChanceMode.EXACT ? GenerateExactTargetNodes() : GenerateSampledTargetNodes();
 
-        // Generates children for all legal moves for the current player.
+        // Generates children for all moves for the current player, except moves into a pocket too small to hold it
+        // (see GameState.isDeadEnd) as long as there is a legal move that is not a dead end.
         // The current player is updated on each new node in-case the next player is dead on some nodes.
         } else {
+            boolean[] deadEnd = new boolean[ALL_POSSIBLE_MOVES.length];
+            boolean hasOpenMove = false;
+            int nrChildren = 0;
+            for (int i = 0; i < ALL_POSSIBLE_MOVES.length && !state.isDead(currentPlayer); i++) {
+                deadEnd[i] = state.isDeadEnd(currentPlayer, ALL_POSSIBLE_MOVES[i]);
+                if (!deadEnd[i] && state.isLegalMove(currentPlayer, ALL_POSSIBLE_MOVES[i]))
+                    hasOpenMove = true;
+            }
+
             childNodes = new MinimaxNode[ALL_POSSIBLE_MOVES.length];
+            for (int i = 0; i < ALL_POSSIBLE_MOVES.length; i++)
+                if (!hasOpenMove || !deadEnd[i])
+                    childNodes[nrChildren++] = GenerateChildNode(ALL_POSSIBLE_MOVES[i]);
+            if (nrChildren < childNodes.length)
+                childNodes = Arrays.copyOf(childNodes, nrChildren);
+        }
 
-            for (int i = 0; i < ALL_POSSIBLE_MOVES.length; i++) {
-                GameState newState = new GameState(state);
-                newState.setOrientation(currentPlayer, ALL_POSSIBLE_MOVES[i]);
-                newState.updatePlayerPosition(currentPlayer);
+        return childNodes;
+    }
 
-                // To identify the next player to move: iterate through players until a living player is found.
-                int nextPlayer = currentPlayer;
 
-                if (!newState.isGameOver()){
-                    do nextPlayer = (nextPlayer + 1) % state.getNrPlayers();
-                    while (newState.isDead(nextPlayer));
-                }
+    // Generates the child for a single move of the current player.
+    public MinimaxNode GenerateChildNode(int move) {
+        GameState newState = new GameState(state);
+        newState.setOrientation(currentPlayer, move);
+        newState.updatePlayerPosition(currentPlayer);
 
-                childNodes[i] = new MinimaxNode(newState, nextPlayer);
+        // To identify the next player to move: iterate through players until a living player is found.
+        int nextPlayer = currentPlayer;
+
+        if (!newState.isGameOver()){
+            do nextPlayer = (nextPlayer + 1) % state.getNrPlayers();
+            while (newState.isDead(nextPlayer));
+        }
+
+        return new MinimaxNode(newState, nextPlayer, chanceMode);
+    }
+
+
+    // Samples a set number of targets. Samples that hit the same cell are searched once, with their combined weight.
+    // The samples are drawn from a generator seeded with the position, so a position always gets the same samples.
+    private MinimaxNode[] GenerateSampledTargetNodes() {
+        Random random = SearchArena.get().getRandom(state.getPositionKey());
+        MinimaxNode[] childNodes = new MinimaxNode[RANDOM_SAMPLE_COUNT];
+        int nrChildren = 0;
+        for (int i = 0; i < RANDOM_SAMPLE_COUNT; i++) {
+            GameState newState = new GameState(state);
+            newState.chooseNextTarget(random);
+            int j = 0;
+            while (j < nrChildren && (childNodes[j].state.getTargetX() != newState.getTargetX()
+                    || childNodes[j].state.getTargetY() != newState.getTargetY()))
+                j++;
+            if (j == nrChildren) {
+                childNodes[nrChildren] = new MinimaxNode(newState, currentPlayer, chanceMode);
+                childNodes[nrChildren++].probability = 0;
+            }
+            childNodes[j].probability += 1.0 / RANDOM_SAMPLE_COUNT;
+        }
+        return nrChildren < childNodes.length ? Arrays.copyOf(childNodes, nrChildren) : childNodes;
+    }
+
+
+    // Every free cell is equally likely to become the target, so the children are the classes of free cells,
+    // each represented by its first cell and weighted by the fraction of free cells in it.
+    // Only the MAX_TARGET_CLASSES heaviest classes are searched; every lighter class adds its weight to the searched
+    // class with the most similar profile.
+    private MinimaxNode[] GenerateExactTargetNodes() {
+        int[][] distances = getHeadDistances();
+        Map<Integer, TargetClass> classesByHash = new HashMap<>();
+        List<TargetClass> classes = new ArrayList<>();
+        int[] profile = new int[state.getNrPlayers()];
+        int nrFreeCells = 0;
+        for (int y = 0; y < state.getHeight(); y++) {
+            for (int x = 0; x < state.getWidth(); x++) {
+                if (state.isOccupied(x, y))
+                    continue;
+                nrFreeCells++;
+                getTargetProfile(distances, x, y, profile);
+                int hash = Arrays.hashCode(profile);
+                TargetClass targetClass = classesByHash.get(hash);
+                while (targetClass != null && !Arrays.equals(targetClass.profile, profile))
+                    targetClass = targetClass.next;
+                if (targetClass == null) {
+                    targetClass = new TargetClass(profile.clone(), x, y);
+                    targetClass.next = classesByHash.put(hash, targetClass);
+                    classes.add(targetClass);
+                }
+                targetClass.nrCells++;
             }
         }
 
+        // The sort is stable, so of equally heavy classes the one found first is kept
+        classes.sort((a, b) -> b.nrCells - a.nrCells);
+        int nrKept = Math.min(classes.size(), MAX_TARGET_CLASSES);
+        for (int i = nrKept; i < classes.size(); i++) {
+            TargetClass merged = classes.get(i);
+            TargetClass nearest = classes.get(0);
+            for (int j = 1; j < nrKept; j++)
+                if (getProfileDistance(classes.get(j).profile, merged.profile) < getProfileDistance(nearest.profile, merged.profile))
+                    nearest = classes.get(j);
+            nearest.nrCells += merged.nrCells;
+        }
+
+        MinimaxNode[] childNodes = new MinimaxNode[nrKept];
+        for (int i = 0; i < nrKept; i++) {
+            TargetClass targetClass = classes.get(i);
+            GameState newState = new GameState(state);
+            newState.setTarget(targetClass.x, targetClass.y);
+            childNodes[i] = new MinimaxNode(newState, currentPlayer, chanceMode);
+            childNodes[i].probability = (double) targetClass.nrCells / nrFreeCells;
+        }
         return childNodes;
     }
+
+
+    // Two targets are equivalent when every living head is about as far from them through the free cells, which is
+    // about all the evaluation sees of a target. The profile holds the distance range of each head (see getDistanceRange).
+    private void getTargetProfile(int[][] distances, int x, int y, int[] profile) {
+        int nrCells = state.getWidth() * state.getHeight();
+        for (int player = 0; player < state.getNrPlayers(); player++)
+            profile[player] = state.isDead(player) ? 0 : getDistanceRange(distances[player][x + y * state.getWidth()], nrCells);
+    }
+
+
+    // The evaluation scores a target by one over its distance, so distances up to 3 are told apart exactly
+    // and longer ones only by doubling ranges (4-7, 8-15, ...). Unreachable cells get a range past all others.
+    private static int getDistanceRange(int distance, int nrCells) {
+        if (distance >= nrCells)
+            return Integer.SIZE - Integer.numberOfLeadingZeros(nrCells) + 2;
+        return distance < 4 ? distance : Integer.SIZE - Integer.numberOfLeadingZeros(distance) + 1;
+    }
+
+
+    private static int getProfileDistance(int[] a, int[] b) {
+        int distance = 0;
+        for (int i = 0; i < a.length; i++)
+            distance += Math.abs(a[i] - b[i]);
+        return distance;
+    }
+
+
+    // A class of equivalent free cells: their profile, the first of them and how many there are.
+    // Classes whose profiles have the same hash are chained through next.
+    private static final class TargetClass {
+        final int[] profile;
+        final int x, y;
+        int nrCells;
+        TargetClass next;
+
+        TargetClass(int[] profile, int x, int y) {
+            this.profile = profile;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+
+    // Breadth-first distances from every living head through the free cells.
+    // Unreachable cells are left at the number of cells. Dead players have no distances.
+    // The planes come from the arena of the thread and are only valid until the children are generated.
+    private int[][] getHeadDistances() {
+        int width = state.getWidth();
+        int nrCells = width * state.getHeight();
+        SearchArena arena = SearchArena.get();
+        int[][] distances = arena.getDistances(state.getNrPlayers(), nrCells);
+        int[] queue = arena.getQueue(nrCells);
+        for (int player = 0; player < state.getNrPlayers(); player++) {
+            if (state.isDead(player))
+                continue;
+            int[] playerDistances = distances[player];
+            Arrays.fill(playerDistances, 0, nrCells, nrCells);
+            int head = state.getHeadX(player) + state.getHeadY(player) * width;
+            playerDistances[head] = 0;
+            queue[0] = head;
+            int queueStart = 0, queueEnd = 1;
+            while (queueStart < queueEnd) {
+                int cell = queue[queueStart++];
+                int distance = playerDistances[cell] + 1;
+                int x = cell % width;
+                int y = cell / width;
+                for (int move : ALL_POSSIBLE_MOVES) {
+                    int nextX = x + (move == GameState.EAST ? 1 : move == GameState.WEST ? -1 : 0);
+                    int nextY = y + (move == GameState.SOUTH ? 1 : move == GameState.NORTH ? -1 : 0);
+                    int next = nextX + nextY * width;
+                    if (state.isFree(nextX, nextY) && playerDistances[next] > distance) {
+                        playerDistances[next] = distance;
+                        queue[queueEnd++] = next;
+                    }
+                }
+            }
+        }
+        return distances;
+    }
 }
@@ -20,6 +20,19 @@ class Node extends Position implements Comparable<Node> {
 
     public Node(int x, int y, int targetX, int targetY) {
         super(x, y);
+        reset(x, y, targetX, targetY);
+    }
+
+    public Node(int x, int y, Node previous) {
+        super(x, y);
+        reset(x, y, previous);
+    }
+
+    // Turns a node that is no longer needed into the start of a new search, see AStarPlayer.newNode
+    void reset(int x, int y, int targetX, int targetY) {
+        this.x = x;
+        this.y = y;
+        previous = null;
         depth = 0;
         this.targetX = targetX;
         this.targetY = targetY;
@@ -27,8 +40,10 @@ class Node extends Position implements Comparable<Node> {
         distanceTravelled = 0;
     }
 
-    public Node(int x, int y, Node previous) {
-        super(x, y);
+    // Turns a node that is no longer needed into a successor of previous
+    void reset(int x, int y, Node previous) {
+        this.x = x;
+        this.y = y;
         this.previous = previous;
         targetX = previous.targetX;
         targetY = previous.targetY;
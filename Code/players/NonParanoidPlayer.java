@@ -1,40 +1,123 @@
 package players;
 
 import snake.GameState;
+import snake.Metrics;
 import snake.Snake;
 
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class NonParanoidPlayer extends BaseMinimaxPlayer {
 
-    private int moveCalculationTimeoutMs;
+    // How the max^n tree is searched:
+    //     MAX_N:           every player picks its best move, the whole tree is expanded
+    //     SHALLOW_PRUNING: max^n with shallow pruning, using values normalised to shares that sum to at most 1
+    //     BEST_REPLY:      Best-Reply Search, after each of this player's moves only the strongest single opponent reply is played
+    public enum SearchMode { MAX_N, SHALLOW_PRUNING, BEST_REPLY }
+
+    private static final int EVALUATION_CACHE_SIZE = 1 << 16;
+    // Upper bound on the sum of all players' values in SHALLOW_PRUNING mode
+    private static final double MAX_SUM = 1;
+    // In parallel mode, subtrees with fewer plies than this left are searched sequentially by the task that reaches them
+    private static final int PARALLEL_MIN_DEPTH = 3;
+
+    private SearchMode searchMode;
+    // Shared by every search of this player, so positions reached through different move orders are evaluated once.
+    // The cache is not thread-safe, so each thread of the parallel search has its own.
+    private ThreadLocal<EvaluationCache> evaluationCaches;
+    // Runs the MAX_N search as fork/join tasks when set, see setParallelism
+    private ForkJoinPool pool;
+    // Set by a search that found the time up; the values of the depth being searched are then incomplete
+    private volatile boolean searchAborted;
 
 
     public NonParanoidPlayer(GameState state, int index, Snake game, int moveCalculationTimeoutMs) {
+        this(state, index, game, moveCalculationTimeoutMs, SearchMode.MAX_N);
+    }
+
+
+    public NonParanoidPlayer(GameState state, int index, Snake game, int moveCalculationTimeoutMs, SearchMode searchMode) {
         super(state, index, game);
-        this.moveCalculationTimeoutMs = moveCalculationTimeoutMs;
+        this.searchMode = searchMode;
+        timeManager = new TimeManager(moveCalculationTimeoutMs);
+        evaluationCaches = newEvaluationCaches();
+    }
+
+
+    private ThreadLocal<EvaluationCache> newEvaluationCaches() {
+        int nrPlayers = state.getNrPlayers();
+        return ThreadLocal.withInitial(() -> new EvaluationCache(EVALUATION_CACHE_SIZE, nrPlayers));
+    }
+
+
+    /*
+     * Searches the MAX_N tree with fork/join on the given number of threads: the children of chance nodes and the
+     * sibling moves of every node are independent subtrees, so they run as tasks down to PARALLEL_MIN_DEPTH.
+     * A parallelism of 1 or less searches sequentially again and stops the threads; the game does so when it ends.
+     */
+    public void setParallelism(int parallelism) {
+        if (pool != null)
+            pool.shutdown();
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+
+    @Override
+    public void setEvaluation(LinearEvaluation evaluation) {
+        super.setEvaluation(evaluation);
+        evaluationCaches = newEvaluationCaches();
+    }
+
+
+    @Override
+    public void setValueNetwork(ValueNetwork valueNetwork) {
+        super.setValueNetwork(valueNetwork);
+        evaluationCaches = newEvaluationCaches();
+    }
+
+
+    @Override
+    protected String getSearchSpec() {
+        return super.getSearchSpec() + ":" + searchMode;
     }
 
 
     @Override
     public void doMove() {
-        int direction = getBestMoveUsingIterativeDeepening();
+        timeManager.startMove();
+        observeOpponentMoves();
+        int direction = getSoloMove();
+        if (direction < 0)
+            direction = getForcedMove();
+        if (direction < 0)
+            direction = getOpeningBookMove();
+        if (direction < 0)
+            direction = getEndgameMove();
+        if (direction < 0)
+            direction = getBestMoveUsingIterativeDeepening();
+        timeManager.endMove();
+        observeOwnMove(direction);
         state.setOrientation(index, direction);
     }
 
 
     private int getBestMoveUsingIterativeDeepening() {
-        long startTime = System.currentTimeMillis();
-        Map<MinimaxNode, Double> moveValues = new HashMap<>();
+        // Kept in the order the moves were generated, so that ties are broken the same way in every run
+        Map<MinimaxNode, Double> moveValues = new LinkedHashMap<>();
         int depth = 1; // Initial depth of 1
+        searchAborted = false;
 
-        // Initialise moveValues with all possible moves
-        for (MinimaxNode node : new MinimaxNode(state, index).GenerateChildNodes())
-            moveValues.put(node, 0d);
+        // Initialise moveValues with all possible moves, those that die straight away at minus infinity,
+        // so that a search stopped before it completed a single move still avoids them
+        for (MinimaxNode node : new MinimaxNode(state, index, chanceMode).GenerateChildNodes())
+            moveValues.put(node, node.getGameState().isDead(index) ? Double.NEGATIVE_INFINITY : 0d);
 
-        // Increase depth iteratively until the timeout reached.
-        while (System.currentTimeMillis() - startTime < moveCalculationTimeoutMs) {
+        // Increase depth iteratively until the time manager says to stop.
+        boolean searchNextDepth = true;
+        while (searchNextDepth) {
 
             MinimaxNode fallbackBestMove = null;
             Double fallbackBestValue = Double.NEGATIVE_INFINITY;
@@ -46,6 +129,9 @@ public class NonParanoidPlayer extends BaseMinimaxPlayer {
 
                 // Get the value (for this player) of the predicted board state.
                 Double value = getMiniMaxValue(move, depth).getValue(index);
+                // The search gave up part of the tree, the value is not to be trusted
+                if (searchAborted)
+                    break;
 
                 if (value == Double.NEGATIVE_INFINITY) {
                     Double oldValue = moveValues.get(move);
@@ -61,10 +147,12 @@ public class NonParanoidPlayer extends BaseMinimaxPlayer {
                 moveValues.put(move, value);
 
                 // If time is up, break out of the loop inner loop
-                // Outer loop will also break at the start of the next iteration
-                if ((System.currentTimeMillis() - startTime) >= moveCalculationTimeoutMs)
+                // Outer loop will also break at the end of this iteration
+                if (timeManager.isTimeUp())
                     break;
             }
+            if (searchAborted)
+                break;
             // If all evaluated moves end in death, terminate the search
             // The default behaviour would value all of these moves equally and return the first in the list.
             // We can potentially pick a better move than the default behaviour.
@@ -78,48 +166,64 @@ public class NonParanoidPlayer extends BaseMinimaxPlayer {
                     return GameState.NORTH;
 
             depth++;
+            searchNextDepth = timeManager.shouldSearchNextDepth(getBestMove(moveValues), Collections.max(moveValues.values()));
         }
         // After the outer loop has broken and not all moves end in death.
-        // Find move with best value;
-        MinimaxNode bestMove = null;
-        Double bestValue = Double.NEGATIVE_INFINITY;
-        for (MinimaxNode move : moveValues.keySet()) {
-            Double value = moveValues.get(move);
-            if (value > bestValue) {
-                bestMove = move;
-                bestValue = value;
-            }
-        }
-        // return the direction of the player for that move
-        return bestMove.getGameState().getLastOrientation(index);
+        // Return the direction of the player for the move with the best value
+        Metrics.recordSearchDepth(index, getClass().getSimpleName(), depth - 1);
+        return getBestMove(moveValues);
     }
 
 
     private EvaluatedState getMiniMaxValue(MinimaxNode node, int targetDepth) {
+        if (searchMode == SearchMode.SHALLOW_PRUNING)
+            return getShallowPrunedValue(node, targetDepth, -1, 0);
+        if (searchMode == SearchMode.BEST_REPLY)
+            return getBestReplyValue(node, targetDepth);
+        if (pool != null)
+            return pool.invoke(new SubtreeTask(node, targetDepth));
+        return getMaxNValue(node, targetDepth);
+    }
+
+
+    // Gives up the search of the current depth once the time is up: the node is left unsearched,
+    // and the iterative deepening discards the values of the depth.
+    private EvaluatedState abort(MinimaxNode node) {
+        searchAborted = true;
+        return new LazyEvaluatedState(node.getGameState());
+    }
+
+
+    // max^n: every player picks the move that is best for itself
+    private EvaluatedState getMaxNValue(MinimaxNode node, int targetDepth) {
+        if (timeManager.countNode())
+            return abort(node);
+
         // Terminate the search if:
         //     we have reached the maximum depth,
         //     and the next iteration would bring us to an even lower depth
         if (!node.isChanceNode() && targetDepth == 1)
             return new LazyEvaluatedState(node.getGameState());
-        MinimaxNode[] childNodes = node.GenerateChildNodes();
+        MinimaxNode[] childNodes = getLikelyReplies(node, node.GenerateChildNodes());
         if (childNodes.length < 1)
             return new LazyEvaluatedState(node.getGameState());
 
         // Node is a chance node
-        // Sum up and take the average of the values of all the children for each player (all outcomes have equal probability)
+        // Take the expectation of the values of all the children for each player, weighted by their probabilities
         // Do not increment the depth because chance nodes are states with no target. These states would be unfairly undervalued as leaf nodes.
         if (node.isChanceNode()) {
             EvaluatedState[] evaluatedStates = new EvaluatedState[childNodes.length];
             for (int i = 0; i < childNodes.length; i++)
-                evaluatedStates[i] = getMiniMaxValue(childNodes[i], targetDepth);
-            return new LazyEvaluatedChanceState(evaluatedStates);
+                evaluatedStates[i] = getMaxNValue(childNodes[i], targetDepth);
+            return new LazyEvaluatedChanceState(evaluatedStates, childNodes);
         }
 
         // Choose the next move based on the best predicted outcome for the player who's turn it is.
+        // Opponents only choose among the replies the opponent model considers likely.
         EvaluatedState bestEvaluatedState = null;
         int currentPlayer = node.getCurrentPlayer();
         for (MinimaxNode child : childNodes) {
-            EvaluatedState evaluatedState = getMiniMaxValue(child, targetDepth - 1);
+            EvaluatedState evaluatedState = getMaxNValue(child, targetDepth - 1);
             if (bestEvaluatedState == null || evaluatedState.getValue(currentPlayer) > bestEvaluatedState.getValue(currentPlayer))
                 bestEvaluatedState = evaluatedState;
         }
@@ -127,6 +231,166 @@ public class NonParanoidPlayer extends BaseMinimaxPlayer {
     }
 
 
+    // The MAX_N search of a subtree as a fork/join task. The children are searched as tasks of their own and
+    // their values merged in the same way as getMaxNValue does, until the subtree is too small to be worth splitting.
+    // Tasks stop as soon as the time is up and leave it to the iterative deepening to discard the depth.
+    // Tasks are never serialised
+    @SuppressWarnings("serial")
+    private class SubtreeTask extends RecursiveTask<EvaluatedState> {
+        private final MinimaxNode node;
+        private final int targetDepth;
+
+        SubtreeTask(MinimaxNode node, int targetDepth) {
+            this.node = node;
+            this.targetDepth = targetDepth;
+        }
+
+        @Override
+        protected EvaluatedState compute() {
+            if (targetDepth < PARALLEL_MIN_DEPTH)
+                return getMaxNValue(node, targetDepth);
+            if (timeManager.countNode() || searchAborted)
+                return abort(node);
+            MinimaxNode[] childNodes = getLikelyReplies(node, node.GenerateChildNodes());
+            if (childNodes.length < 1)
+                return new LazyEvaluatedState(node.getGameState());
+
+            // Chance nodes do not use up depth, see getMaxNValue
+            int childDepth = node.isChanceNode() ? targetDepth : targetDepth - 1;
+            SubtreeTask[] tasks = new SubtreeTask[childNodes.length];
+            for (int i = 0; i < childNodes.length; i++)
+                tasks[i] = new SubtreeTask(childNodes[i], childDepth);
+            invokeAll(tasks);
+
+            EvaluatedState[] evaluatedStates = new EvaluatedState[childNodes.length];
+            for (int i = 0; i < childNodes.length; i++)
+                evaluatedStates[i] = tasks[i].join();
+            if (node.isChanceNode())
+                return new LazyEvaluatedChanceState(evaluatedStates, childNodes);
+
+            EvaluatedState bestEvaluatedState = null;
+            int currentPlayer = node.getCurrentPlayer();
+            for (EvaluatedState evaluatedState : evaluatedStates)
+                if (bestEvaluatedState == null || evaluatedState.getValue(currentPlayer) > bestEvaluatedState.getValue(currentPlayer))
+                    bestEvaluatedState = evaluatedState;
+            return bestEvaluatedState;
+        }
+    }
+
+
+
+    // max^n with shallow pruning.
+    // All values are shares of at most MAX_SUM in total, so once the player to move is sure of a share v here,
+    // the player one level up can get at most MAX_SUM - v from this node. If that is no better than what it already has
+    // elsewhere (parentBest), the remaining children cannot change its choice and are skipped.
+    private EvaluatedState getShallowPrunedValue(MinimaxNode node, int targetDepth, int parentPlayer, double parentBest) {
+        if (timeManager.countNode())
+            return abort(node);
+        if (!node.isChanceNode() && targetDepth == 1)
+            return new LazyEvaluatedState(node.getGameState());
+        MinimaxNode[] childNodes = getLikelyReplies(node, node.GenerateChildNodes());
+        if (childNodes.length < 1)
+            return new LazyEvaluatedState(node.getGameState());
+
+        // The average over chance outcomes gives no bound for a single outcome, so chance children are not pruned.
+        if (node.isChanceNode()) {
+            EvaluatedState[] evaluatedStates = new EvaluatedState[childNodes.length];
+            for (int i = 0; i < childNodes.length; i++)
+                evaluatedStates[i] = getShallowPrunedValue(childNodes[i], targetDepth, -1, 0);
+            return new LazyEvaluatedChanceState(evaluatedStates, childNodes);
+        }
+
+        EvaluatedState bestEvaluatedState = null;
+        int currentPlayer = node.getCurrentPlayer();
+        for (MinimaxNode child : childNodes) {
+            double best = bestEvaluatedState == null ? 0 : share(bestEvaluatedState.getValue(currentPlayer));
+            EvaluatedState evaluatedState = getShallowPrunedValue(child, targetDepth - 1, currentPlayer, best);
+            if (bestEvaluatedState == null || evaluatedState.getValue(currentPlayer) > bestEvaluatedState.getValue(currentPlayer))
+                bestEvaluatedState = evaluatedState;
+            if (parentPlayer >= 0 && share(bestEvaluatedState.getValue(currentPlayer)) >= MAX_SUM - parentBest)
+                break;
+        }
+        return bestEvaluatedState;
+    }
+
+
+    // Dead players have a value of minus infinity but hold no share of the total
+    private static double share(Double value) {
+        return Math.max(0, value);
+    }
+
+
+    // Best-Reply Search.
+    // Instead of letting every opponent move in turn, all opponents together get a single move after each move of this player:
+    // the one reply, by any opponent, that is worst for this player. The other opponents pass.
+    // This keeps the tree at this player's branching factor times the number of opponent moves per round.
+    private EvaluatedState getBestReplyValue(MinimaxNode node, int targetDepth) {
+        if (timeManager.countNode())
+            return abort(node);
+        if ((!node.isChanceNode() && targetDepth == 1) || node.getGameState().isDead(index))
+            return new LazyEvaluatedState(node.getGameState());
+
+        if (node.isChanceNode()) {
+            MinimaxNode[] childNodes = node.GenerateChildNodes();
+            EvaluatedState[] evaluatedStates = new EvaluatedState[childNodes.length];
+            for (int i = 0; i < childNodes.length; i++)
+                evaluatedStates[i] = getBestReplyValue(childNodes[i], targetDepth);
+            return new LazyEvaluatedChanceState(evaluatedStates, childNodes);
+        }
+
+        // This player's move
+        if (node.getCurrentPlayer() == index) {
+            EvaluatedState bestEvaluatedState = null;
+            for (MinimaxNode child : node.GenerateChildNodes()) {
+                EvaluatedState evaluatedState = getBestReplyValue(child, targetDepth - 1);
+                if (bestEvaluatedState == null || evaluatedState.getValue(index) > bestEvaluatedState.getValue(index))
+                    bestEvaluatedState = evaluatedState;
+            }
+            return bestEvaluatedState;
+        }
+
+        // The opponents' reply: the single move of any living opponent that minimises this player's value,
+        // among the moves the opponent model considers likely.
+        // Afterwards it is this player's turn again.
+        GameState nodeState = node.getGameState();
+        EvaluatedState worstEvaluatedState = null;
+        for (int opponent = 0; opponent < nodeState.getNrPlayers(); opponent++) {
+            if (opponent == index || nodeState.isDead(opponent))
+                continue;
+            MinimaxNode opponentNode = new MinimaxNode(nodeState, opponent, chanceMode);
+            for (MinimaxNode reply : getLikelyReplies(opponentNode, opponentNode.GenerateChildNodes())) {
+                EvaluatedState evaluatedState = getBestReplyValue(new MinimaxNode(reply.getGameState(), index, chanceMode), targetDepth - 1);
+                if (worstEvaluatedState == null || evaluatedState.getValue(index) < worstEvaluatedState.getValue(index))
+                    worstEvaluatedState = evaluatedState;
+            }
+        }
+        if (worstEvaluatedState == null)
+            return new LazyEvaluatedState(nodeState);
+        return worstEvaluatedState;
+    }
+
+
+    // In SHALLOW_PRUNING mode the value of a living player is its share of the total strength of all living players,
+    // where strength is the evaluation with the player's own length in place of the length difference.
+    // This keeps every value in [0, 1] and their sum at most MAX_SUM, which shallow pruning relies on.
+    @Override
+    protected Double evaluateState(GameState state, int playerIndex) {
+        if (searchMode != SearchMode.SHALLOW_PRUNING || state.isDead(playerIndex))
+            return super.evaluateState(state, playerIndex);
+        double total = 0;
+        double own = 0;
+        for (int i = 0; i < state.getNrPlayers(); i++) {
+            if (state.isDead(i))
+                continue;
+            double strength = Math.max(0, evaluation.evaluate(state.getSize(i), searchTargetDistance(state, i)));
+            total += strength;
+            if (i == playerIndex)
+                own = strength;
+        }
+        return total == 0 ? 0 : MAX_SUM * own / total;
+    }
+
+
     // Used to allow interchangeability between the two classes below
     private interface EvaluatedState {
         Double getValue(int playerIndex);
@@ -136,6 +400,7 @@ public class NonParanoidPlayer extends BaseMinimaxPlayer {
     // This class represents a collection of the values of a game state for each player
     // It does not actually evaluate the value for a given player until that value is requested
     // This saves time as not all values will necessarily be used
+    // Values are looked up in the evaluation cache first, as the same position is often reached by several branches
     private class LazyEvaluatedState implements EvaluatedState {
         private GameState state;
         private Double[] values;
@@ -147,8 +412,14 @@ public class NonParanoidPlayer extends BaseMinimaxPlayer {
         }
 
         public Double getValue(int playerIndex) {
-            if (values[playerIndex] == null)
-                values[playerIndex] = evaluateState(state, playerIndex);
+            if (values[playerIndex] == null) {
+                EvaluationCache evaluationCache = evaluationCaches.get();
+                values[playerIndex] = evaluationCache.get(state.getPositionKey(), playerIndex);
+                if (values[playerIndex] == null) {
+                    values[playerIndex] = evaluateState(state, playerIndex);
+                    evaluationCache.put(state.getPositionKey(), playerIndex, values[playerIndex]);
+                }
+            }
             return values[playerIndex];
         }
     }
@@ -161,18 +432,20 @@ public class NonParanoidPlayer extends BaseMinimaxPlayer {
         private EvaluatedState[] states;
         private Double[] values;
 
-        public LazyEvaluatedChanceState(EvaluatedState[] states)
+        private MinimaxNode[] nodes;
+
+        public LazyEvaluatedChanceState(EvaluatedState[] states, MinimaxNode[] nodes)
         {
             this.states = states;
+            this.nodes = nodes;
             values = new Double[state.getNrPlayers()];
         }
 
         public Double getValue(int playerIndex) {
             if (values[playerIndex] == null) {
                 values[playerIndex] = 0d;
-                for (EvaluatedState evaluatedState : states)
-                    values[playerIndex] += evaluatedState.getValue(playerIndex);
-                values[playerIndex] /= states.length;
+                for (int i = 0; i < states.length; i++)
+                    values[playerIndex] += nodes[i].getProbability() * states[i].getValue(playerIndex);
             }
             return values[playerIndex];
         }
@@ -0,0 +1,144 @@
+package players;
+
+import snake.GameState;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Precomputed moves for positions that repeat from game to game, such as the ones right after the fixed spawn layout.
+ * The book is a memory-mapped file of fixed size records sorted by key, so a lookup is a binary search
+ * without loading the file on the heap:
+ *     int magic, int version, int number of player specs, per spec its length as a short and its UTF-8 bytes,
+ *     int number of records, then per record a long key and a byte move.
+ * A player spec (see BaseMinimaxPlayer.getSearchSpec) holds everything that decides the move a player picks:
+ * its kind, search mode, evaluation and chance mode. Keys are position keys of the game state, mixed with the player
+ * to move and the spec of the player that searched it. A player whose spec is not in the header gets no moves
+ * from the book, as the book was not searched the way that player searches.
+ * VERSION has to be raised whenever the keys change, e.g. with GameState.getPositionKey, as the keys of an older
+ * book would silently never match.
+ */
+public class OpeningBook {
+
+    static final int MAGIC = 0x534e4b42; // "SNKB"
+    static final int VERSION = 3;
+    private static final int RECORD_SIZE = 9;
+
+    private MappedByteBuffer buffer;
+    private Set<String> playerSpecs = new HashSet<>();
+    private int recordsStart;
+    private int nrRecords;
+
+    private OpeningBook(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an opening book");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Opening book of version " + buffer.getInt(4) + ", expected " + VERSION
+                    + "; generate it again with OpeningBookGenerator");
+        }
+        int nrPlayerSpecs = buffer.getInt(8);
+        int position = 12;
+        for (int i = 0; i < nrPlayerSpecs; i++) {
+            byte[] bytes = new byte[buffer.getShort(position)];
+            buffer.position(position + 2);
+            buffer.get(bytes);
+            playerSpecs.add(new String(bytes, StandardCharsets.UTF_8));
+            position += 2 + bytes.length;
+        }
+        nrRecords = buffer.getInt(position);
+        recordsStart = position + 4;
+    }
+
+    // Returns the book in the given file, or null if there is no usable book.
+    public static OpeningBook load(String path) {
+        File file = new File(path);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return new OpeningBook(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        } catch (IOException e) {
+            System.err.println("Could not read opening book " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public int size() {
+        return nrRecords;
+    }
+
+    public Set<String> getPlayerSpecs() {
+        return playerSpecs;
+    }
+
+    // Returns the stored move for the player in this position, or -1 if the position is not in the book
+    // or the book was searched by another kind of player.
+    public int getMove(GameState state, int playerIndex, String playerSpec) {
+        if (!playerSpecs.contains(playerSpec)) {
+            return -1;
+        }
+        long key = getKey(state, playerIndex, playerSpec);
+        int low = 0;
+        int high = nrRecords - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = buffer.getLong(recordsStart + mid * RECORD_SIZE);
+            if (midKey < key) {
+                low = mid + 1;
+            }
+            else if (midKey > key) {
+                high = mid - 1;
+            }
+            else {
+                return buffer.get(recordsStart + mid * RECORD_SIZE + 8);
+            }
+        }
+        return -1;
+    }
+
+    static long getKey(GameState state, int playerIndex, String playerSpec) {
+        long specKey = 0;
+        for (int i = 0; i < playerSpec.length(); i++) {
+            specKey = specKey * 1000003L + playerSpec.charAt(i);
+        }
+        return state.getPositionKey() * 31 + playerIndex * 1000003L + specKey;
+    }
+
+    static void write(String path, Collection<String> playerSpecs, Map<Long, Integer> moves) throws IOException {
+        long[] keys = new long[moves.size()];
+        int i = 0;
+        for (Long key : moves.keySet()) {
+            keys[i++] = key;
+        }
+        Arrays.sort(keys);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(playerSpecs.size());
+            for (String playerSpec : playerSpecs) {
+                byte[] bytes = playerSpec.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(keys.length);
+            for (long key : keys) {
+                out.writeLong(key);
+                out.writeByte(moves.get(key));
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package players;
+
+import snake.GameState;
+import snake.Snake;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Offline generator for the opening book.
+ * Starting from the fixed 2 and 4 player spawn layouts, it enumerates every target cell and every sequence of legal
+ * moves for the first few plies, and stores the move the minimax players pick with a much longer search than they get in a game.
+ * The players move in the order of a real game, starting with Snake.getFirstMover, or no position would ever match.
+ * The book only serves players that search like the ones here, with the default evaluation and the chance mode
+ * of -Dsnake.chance; see OpeningBook.
+ * After writing the book, the first plies of a game are played against it to check that its positions are found.
+ *
+ * Usage: OpeningBookGenerator [book file] [number of plies] [search time per position in ms]
+ */
+public class OpeningBookGenerator {
+
+    private static final int BOARD_SIZE = 20;
+    private static final int[] ALL_POSSIBLE_MOVES = {GameState.NORTH, GameState.EAST, GameState.SOUTH, GameState.WEST};
+
+    private Map<Long, Integer> moves = new HashMap<>();
+    private Set<String> playerSpecs = new LinkedHashSet<>();
+    private int nrPlies;
+    private int searchTimeMs;
+
+    public OpeningBookGenerator(int nrPlies, int searchTimeMs) {
+        this.nrPlies = nrPlies;
+        this.searchTimeMs = searchTimeMs;
+    }
+
+    public void generate(int nrPlayers) throws Exception {
+        GameState spawn = new GameState(nrPlayers, BOARD_SIZE, BOARD_SIZE);
+        for (int x = 0; x < BOARD_SIZE; x++) {
+            for (int y = 0; y < BOARD_SIZE; y++) {
+                if (!spawn.isOccupied(x, y)) {
+                    GameState state = new GameState(spawn);
+                    state.setTarget(x, y);
+                    addPositions(state, Snake.getFirstMover(nrPlayers), nrPlies);
+                }
+            }
+            System.out.println(nrPlayers + " players: column " + (x + 1) + "/" + BOARD_SIZE + ", " + moves.size() + " positions");
+        }
+    }
+
+    private void addPositions(GameState state, int mover, int pliesLeft) {
+        if (pliesLeft == 0 || state.isGameOver() || !state.hasTarget()) {
+            return;
+        }
+        BaseMinimaxPlayer[] searchers = {
+                new ParanoidPlayer(new GameState(state), mover, null, searchTimeMs),
+                new NonParanoidPlayer(new GameState(state), mover, null, searchTimeMs)
+        };
+        for (BaseMinimaxPlayer searcher : searchers) {
+            searcher.setUseOpeningBook(false);
+            searcher.doMove();
+            playerSpecs.add(searcher.getSearchSpec());
+            moves.put(OpeningBook.getKey(state, mover, searcher.getSearchSpec()), searcher.state.getOrientation(mover));
+        }
+
+        for (int move : ALL_POSSIBLE_MOVES) {
+            if (!state.isLegalMove(mover, move)) {
+                continue;
+            }
+            GameState next = new GameState(state);
+            next.setOrientation(mover, move);
+            next.updatePlayerPosition(mover);
+            if (next.isGameOver()) {
+                continue;
+            }
+            int nextMover = mover;
+            do nextMover = (nextMover + 1) % next.getNrPlayers();
+            while (next.isDead(nextMover));
+            addPositions(next, nextMover, pliesLeft - 1);
+        }
+    }
+
+    /*
+     * Plays the first plies of a game the way Snake does, with a random target, and returns the number of positions
+     * on the way that every player of the book finds in it.
+     */
+    static int countHits(OpeningBook book, int nrPlayers, int nrPlies) throws Exception {
+        GameState state = new GameState(nrPlayers, BOARD_SIZE, BOARD_SIZE);
+        int mover = Snake.getFirstMover(nrPlayers);
+        int nrHits = 0;
+        for (int ply = 0; ply < nrPlies && !state.isGameOver() && state.hasTarget(); ply++) {
+            int move = -1;
+            boolean found = true;
+            for (String playerSpec : book.getPlayerSpecs()) {
+                move = book.getMove(state, mover, playerSpec);
+                found &= move > 0;
+            }
+            if (found) {
+                nrHits++;
+            }
+            if (move <= 0) {
+                break;
+            }
+            state.setOrientation(mover, move);
+            state.updatePlayerPosition(mover);
+            do mover = (mover + 1) % nrPlayers;
+            while (!state.isGameOver() && state.isDead(mover));
+        }
+        return nrHits;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String path = args.length > 0 ? args[0] : "snake.book";
+        int nrPlies = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int searchTimeMs = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        OpeningBookGenerator generator = new OpeningBookGenerator(nrPlies, searchTimeMs);
+        generator.generate(2);
+        generator.generate(4);
+        OpeningBook.write(path, generator.playerSpecs, generator.moves);
+        System.out.println("Players: " + generator.playerSpecs);
+        System.out.println("Wrote " + generator.moves.size() + " positions to " + path);
+
+        OpeningBook book = OpeningBook.load(path);
+        for (int nrPlayers : new int[]{2, 4}) {
+            int nrHits = countHits(book, nrPlayers, nrPlies);
+            System.out.println(nrPlayers + " players: " + nrHits + " of the first " + nrPlies + " plies of a game found in the book");
+            if (nrHits == 0) {
+                throw new IllegalStateException("The book does not match the positions of a game");
+            }
+        }
+    }
+}
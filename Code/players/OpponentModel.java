@@ -0,0 +1,123 @@
+package players;
+
+import snake.GameState;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Online model of how the opponents of one player choose their moves, learnt from the moves they made so far this game.
+ * Every move falls in one of three classes: it brings the snake closer to the target, it kills the snake, or neither.
+ * The model assumes a player picks each of its moves with a weight that only depends on the class of the move,
+ * and estimates these weights per opponent from the rate at which it picked the moves of each class it was offered.
+ * An AStarPlayer, which always heads for the target, ends up with a large weight for moves towards the target;
+ * a RandomPlayer with about equal weights for the moves that do not kill it.
+ *
+ * Moves are observed by comparing the state at the start of a move of the player with the state right after its
+ * previous move. The opponents that moved in between decided on slightly different states, so a decision is only
+ * counted if the target is still the same.
+ */
+class OpponentModel {
+
+    private static final int TOWARDS_TARGET = 0;
+    private static final int OTHER = 1;
+    private static final int FATAL = 2;
+    private static final int NR_CLASSES = 3;
+    // Decisions of an opponent that have to be seen before its replies are pruned
+    private static final int MIN_OBSERVATIONS = 8;
+    // Replies that are less likely than this are not searched
+    private static final double PRUNE_PROBABILITY = 0.05;
+
+    private final int index;
+    private final int[] nrObservations;
+    private final double[][] chosen;
+    private final double[][] offered;
+    // The state right after the last move of this player, or null if it has not moved yet
+    private GameState previous;
+
+    OpponentModel(int nrPlayers, int index) {
+        this.index = index;
+        nrObservations = new int[nrPlayers];
+        chosen = new double[nrPlayers][NR_CLASSES];
+        offered = new double[nrPlayers][NR_CLASSES];
+    }
+
+
+    // Learns from the move every opponent made since the last move of this player
+    void observeMoves(GameState state) {
+        if (previous == null || !previous.hasTarget() || !state.hasTarget()
+                || previous.getTargetX() != state.getTargetX() || previous.getTargetY() != state.getTargetY())
+            return;
+        for (int player = 0; player < state.getNrPlayers(); player++) {
+            if (player == index || previous.isDead(player) || state.isDead(player))
+                continue;
+            MinimaxNode node = new MinimaxNode(previous, player);
+            for (int move : MinimaxNode.ALL_POSSIBLE_MOVES) {
+                if (previous.nextPlayerX(player, move) != state.getHeadX(player) || previous.nextPlayerY(player, move) != state.getHeadY(player))
+                    continue;
+                for (int option : MinimaxNode.ALL_POSSIBLE_MOVES) {
+                    int moveClass = getMoveClass(previous, node.GenerateChildNode(option).getGameState(), player);
+                    offered[player][moveClass]++;
+                    if (option == move)
+                        chosen[player][moveClass]++;
+                }
+                nrObservations[player]++;
+            }
+        }
+    }
+
+
+    // Remembers the state after this player's own move, to compare the next state with
+    void observeOwnMove(GameState state, int move) {
+        previous = new GameState(state);
+        previous.setOrientation(index, move);
+        previous.updatePlayerPosition(index);
+    }
+
+
+    /*
+     * The replies of the opponent to move in node, without those the model considers unlikely, most likely first.
+     * All replies are returned as long as the model has seen too few decisions of the opponent.
+     */
+    MinimaxNode[] getLikelyReplies(MinimaxNode node, MinimaxNode[] childNodes) {
+        int player = node.getCurrentPlayer();
+        if (nrObservations[player] < MIN_OBSERVATIONS || childNodes.length < 2)
+            return childNodes;
+
+        GameState state = node.getGameState();
+        double[] weights = new double[childNodes.length];
+        double totalWeight = 0;
+        for (int i = 0; i < childNodes.length; i++) {
+            weights[i] = getWeight(player, getMoveClass(state, childNodes[i].getGameState(), player));
+            totalWeight += weights[i];
+        }
+        Integer[] order = new Integer[childNodes.length];
+        int nrLikely = 0;
+        for (int i = 0; i < childNodes.length; i++)
+            if (weights[i] >= PRUNE_PROBABILITY * totalWeight)
+                order[nrLikely++] = i;
+        // The most likely reply has a probability of at least 1 / 4, so there is always one left
+        Arrays.sort(order, 0, nrLikely, Comparator.comparingDouble(i -> -weights[i]));
+        MinimaxNode[] likelyReplies = new MinimaxNode[nrLikely];
+        for (int i = 0; i < nrLikely; i++)
+            likelyReplies[i] = childNodes[order[i]];
+        return likelyReplies;
+    }
+
+
+    // Weight of a class of moves relative to moves of class OTHER, smoothed so that unseen classes keep some weight
+    private double getWeight(int player, int moveClass) {
+        double rate = (chosen[player][moveClass] + 0.5) / (offered[player][moveClass] + 1);
+        double otherRate = (chosen[player][OTHER] + 0.5) / (offered[player][OTHER] + 1);
+        return rate / otherRate;
+    }
+
+
+    private static int getMoveClass(GameState before, GameState after, int player) {
+        if (after.isDead(player))
+            return FATAL;
+        if (!after.hasTarget() || after.getTargetDistance(player) < before.getTargetDistance(player))
+            return TOWARDS_TARGET;
+        return OTHER;
+    }
+}
@@ -1,51 +1,93 @@
 package players;
 
 import snake.GameState;
+import snake.Metrics;
 import snake.Snake;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ParanoidPlayer extends BaseMinimaxPlayer {
 
-    private int moveCalculationTimeoutMs;
+    // Half the width of the aspiration window, about one segment of length difference
+    private static final double ASPIRATION_WINDOW = 1;
+    // Limits of the quiescence extension: plies beyond the search depth, and nodes per iteration
+    private static final int QUIESCENCE_MAX_DEPTH = 4;
+    private static final int QUIESCENCE_NODE_LIMIT = 2000;
+
+    private int quiescenceNodes;
 
 
     public ParanoidPlayer(GameState state, int index, Snake game, int moveCalculationTimeoutMs) {
         super(state, index, game);
-        this.moveCalculationTimeoutMs = moveCalculationTimeoutMs;
+        timeManager = new TimeManager(moveCalculationTimeoutMs);
     }
 
 
     @Override
     public void doMove() {
-        int direction = getBestMoveUsingIterativeDeepening(moveCalculationTimeoutMs);
+        timeManager.startMove();
+        observeOpponentMoves();
+        int direction = getSoloMove();
+        if (direction < 0)
+            direction = getForcedMove();
+        if (direction < 0)
+            direction = getOpeningBookMove();
+        if (direction < 0)
+            direction = getEndgameMove();
+        if (direction < 0)
+            direction = getBestMoveUsingIterativeDeepening();
+        timeManager.endMove();
+        observeOwnMove(direction);
         state.setOrientation(index, direction);
     }
 
 
-    private int getBestMoveUsingIterativeDeepening(long maxTimeMs) {
-        long startTime = System.currentTimeMillis();
-        Map<MinimaxNode, Double> moveValues = new HashMap<>();
+    private int getBestMoveUsingIterativeDeepening() {
+        // Kept in the order the moves were generated, so that ties are broken the same way in every run
+        Map<MinimaxNode, Double> moveValues = new LinkedHashMap<>();
 
-        // Initialise moveValues with all possible moves
-        for (MinimaxNode node : new MinimaxNode(state, index).GenerateChildNodes())
-            moveValues.put(node, 0d);
+        // Initialise moveValues with all possible moves, those that die straight away at minus infinity,
+        // so that a search stopped before it completed a single move still avoids them
+        for (MinimaxNode node : new MinimaxNode(state, index, chanceMode).GenerateChildNodes())
+            moveValues.put(node, node.getGameState().isDead(index) ? Double.NEGATIVE_INFINITY : 0d);
 
         int depth = 1;
-        while (System.currentTimeMillis() - startTime < maxTimeMs) {
+        Double previousBestValue = null;
+        boolean searchNextDepth = true;
+        while (searchNextDepth) {
+
+            // Search the best move of the previous iteration first, it is the most likely principal variation.
+            List<MinimaxNode> orderedMoves = new ArrayList<>(moveValues.keySet());
+            orderedMoves.sort((a, b) -> Double.compare(moveValues.get(b), moveValues.get(a)));
+
+            // Aspiration window: the value of this iteration is expected to be close to the value of the previous one.
+            // If the best value falls outside the window, the iteration is searched again with a full window.
+            Double alpha = Double.NEGATIVE_INFINITY;
+            Double beta = Double.POSITIVE_INFINITY;
+            if (previousBestValue != null && !previousBestValue.isInfinite()) {
+                alpha = previousBestValue - ASPIRATION_WINDOW;
+                beta = previousBestValue + ASPIRATION_WINDOW;
+            }
+            Map<MinimaxNode, Double> iterationValues = new LinkedHashMap<>();
+            quiescenceNodes = 0;
+            Double bestValue = searchRootMoves(orderedMoves, moveValues, iterationValues, alpha, beta, depth);
+            if ((bestValue <= alpha || bestValue >= beta) && !timeManager.isStopped() && !timeManager.isTimeUp()) {
+                iterationValues.clear();
+                bestValue = searchRootMoves(orderedMoves, moveValues, iterationValues, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, depth);
+            }
+            // Stopped before a single move of this depth was searched completely: keep the values of the previous depth
+            if (timeManager.isStopped() && iterationValues.isEmpty())
+                break;
+            previousBestValue = bestValue;
 
             MinimaxNode fallbackBestMove = null;
             Double fallbackBestValue = Double.NEGATIVE_INFINITY;
             boolean livingMoveFoundThisIteration = false;
-            for (MinimaxNode move : moveValues.keySet()) {
-
-                // If a move ends in death, it does not need to be explored at further depths.
-                if (moveValues.get(move) == Double.NEGATIVE_INFINITY)
-                    continue;
-
-                Double value = getMiniMaxValue(move, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, depth);
-
+            for (MinimaxNode move : iterationValues.keySet()) {
+                Double value = iterationValues.get(move);
                 if (value == Double.NEGATIVE_INFINITY) {
                     Double oldValue = moveValues.get(move);
                     // Remember the best move that ended in death this iteration.
@@ -56,12 +98,9 @@ public class ParanoidPlayer extends BaseMinimaxPlayer {
                     }
                 } else
                     livingMoveFoundThisIteration = true;
-                moveValues.put(move, value);
-
-                // If time is up, break out of the loop
-                if ((System.currentTimeMillis() - startTime) >= maxTimeMs)
-                    break;
             }
+            moveValues.putAll(iterationValues);
+
             // If all evaluated moves end in death, terminate the search
             if (!livingMoveFoundThisIteration)
                 // If there is a fallback best move from last iteration, use that
@@ -73,45 +112,90 @@ public class ParanoidPlayer extends BaseMinimaxPlayer {
                     return GameState.NORTH;
 
             depth++;
+            searchNextDepth = timeManager.shouldSearchNextDepth(getBestMove(moveValues), bestValue);
         }
 
-        // Find move with best value;
-        MinimaxNode bestMove = null;
+        Metrics.recordSearchDepth(index, getClass().getSimpleName(), depth - 1);
+        return getBestMove(moveValues);
+    }
+
+
+    // Principal variation search over the root moves.
+    // The first move is searched with the whole window, the others only with a null window to prove they are no better.
+    // A move that turns out to be better is searched again with the whole window to get its exact value.
+    // Moves that fail low keep an upper bound on their value, which is enough as they are not the best move.
+    private Double searchRootMoves(List<MinimaxNode> moves, Map<MinimaxNode, Double> previousValues, Map<MinimaxNode, Double> values,
+                                   Double alpha, Double beta, int depth) {
         Double bestValue = Double.NEGATIVE_INFINITY;
-        for (MinimaxNode move : moveValues.keySet()) {
-            Double value = moveValues.get(move);
-            if (value > bestValue) {
-                bestMove = move;
-                bestValue = value;
+        boolean first = true;
+        for (MinimaxNode move : moves) {
+
+            // If a move ends in death, it does not need to be explored at further depths.
+            if (previousValues.get(move) == Double.NEGATIVE_INFINITY)
+                continue;
+
+            Double value;
+            if (first)
+                value = getMiniMaxValue(move, alpha, beta, depth);
+            else {
+                Double bound = Math.max(alpha, bestValue);
+                value = getMiniMaxValue(move, bound, Math.nextUp(bound), depth);
+                if (value > bound && value < beta)
+                    value = getMiniMaxValue(move, bound, beta, depth);
             }
+            // The search of this move was cut off, its value is meaningless
+            if (timeManager.isStopped())
+                break;
+            first = false;
+            values.put(move, value);
+            bestValue = Math.max(bestValue, value);
+
+            // If time is up, break out of the loop
+            if (timeManager.isTimeUp())
+                break;
         }
-        return bestMove.getGameState().getLastOrientation(index);
+        return bestValue;
     }
 
 
     // min, max, and chance node handling combined into one method
     private Double getMiniMaxValue(MinimaxNode node, Double alpha, Double beta, int targetDepth) {
-        if (node.getGameState().isDead(index) || (targetDepth == 1 && !node.isChanceNode()))
+        if (timeManager.countNode())
+            return 0d;
+        if (node.getGameState().isDead(index))
             return evaluateState(node.getGameState(), index);
+        if (targetDepth == 1 && !node.isChanceNode())
+            return getQuiescenceValue(node, alpha, beta, QUIESCENCE_MAX_DEPTH);
 
-        MinimaxNode[] childNodes = node.GenerateChildNodes();
+        MinimaxNode[] childNodes = getLikelyReplies(node, node.GenerateChildNodes());
         if (childNodes.length < 1)
             return evaluateState(node.getGameState(), index);
 
         // Node is a chance node
-        // Sum up and take the average of the values of all the children (all outcomes have equal probability).
+        // The value is the expectation over the children, weighted by their probabilities.
+        // The children are searched with the whole window: a weighted sum of bounds (some from above, some from below)
+        // is no bound on the expectation, so the value has to be exact for the windows above to mean anything.
         if (node.isChanceNode()) {
             Double totalValue = 0d;
             for (MinimaxNode child : childNodes)
-                totalValue += getMiniMaxValue(child, alpha, beta, targetDepth);
-            return totalValue / childNodes.length;
+                totalValue += child.getProbability() * getMiniMaxValue(child, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, targetDepth);
+            return totalValue;
         }
 
         // This player's turn to move
+        // After the first child, the others are searched with a null window and only searched again if they beat alpha.
         if (node.getCurrentPlayer() == index) {
             Double value = Double.NEGATIVE_INFINITY;
-            for (MinimaxNode child : childNodes) {
-                value = Math.max(value, getMiniMaxValue(child, alpha, beta, targetDepth - 1));
+            for (int i = 0; i < childNodes.length; i++) {
+                Double childValue;
+                if (i == 0)
+                    childValue = getMiniMaxValue(childNodes[i], alpha, beta, targetDepth - 1);
+                else {
+                    childValue = getMiniMaxValue(childNodes[i], alpha, Math.nextUp(alpha), targetDepth - 1);
+                    if (childValue > alpha && childValue < beta)
+                        childValue = getMiniMaxValue(childNodes[i], alpha, beta, targetDepth - 1);
+                }
+                value = Math.max(value, childValue);
                 alpha = Math.max(value, alpha);
                 if (beta <= alpha) break;
             }
@@ -119,12 +203,102 @@ public class ParanoidPlayer extends BaseMinimaxPlayer {
         }
 
         // Enemy player's turn to move
+        // Mirror image of the above, the null window sits just below beta.
+        // Only the replies the opponent model considers likely are left, most likely first.
         Double value = Double.POSITIVE_INFINITY;
-        for (MinimaxNode child : childNodes) {
-            value = Math.min(value, getMiniMaxValue(child, alpha, beta, targetDepth - 1));
+        for (int i = 0; i < childNodes.length; i++) {
+            Double childValue;
+            if (i == 0)
+                childValue = getMiniMaxValue(childNodes[i], alpha, beta, targetDepth - 1);
+            else {
+                childValue = getMiniMaxValue(childNodes[i], Math.nextDown(beta), beta, targetDepth - 1);
+                if (childValue > alpha && childValue < beta)
+                    childValue = getMiniMaxValue(childNodes[i], alpha, beta, targetDepth - 1);
+            }
+            value = Math.min(value, childValue);
             beta = Math.min(value, beta);
             if (beta <= alpha || value == Double.NEGATIVE_INFINITY) break;
         }
         return value;
     }
-}
\ No newline at end of file
+
+
+    // Extends the search beyond the leaves while the position is tactical: heads that can meet on the next move,
+    // or a snake next to the target. Only the moves that take part in that are searched, any other move is assumed
+    // to be worth no more to the player to move than the static evaluation (the "stand pat" value).
+    // A target taken in the extension leaves a chance node, which is worth the exact expectation over the new targets,
+    // searched with the whole window like in getMiniMaxValue.
+    private Double getQuiescenceValue(MinimaxNode node, Double alpha, Double beta, int depthLeft) {
+        GameState nodeState = node.getGameState();
+        MinimaxNode[] targetNodes = node.isChanceNode() && !nodeState.isDead(index) ? node.GenerateChildNodes() : null;
+        if (targetNodes != null && targetNodes.length > 0) {
+            Double totalValue = 0d;
+            for (MinimaxNode child : targetNodes)
+                totalValue += child.getProbability() * getQuiescenceValue(child, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, depthLeft);
+            return totalValue;
+        }
+        Double standPat = evaluateState(nodeState, index);
+        if (nodeState.isDead(index) || depthLeft == 0
+                || quiescenceNodes >= QUIESCENCE_NODE_LIMIT || !isTactical(nodeState))
+            return standPat;
+
+        int mover = node.getCurrentPlayer();
+        boolean maximising = mover == index;
+        if (maximising) {
+            if (standPat >= beta) return standPat;
+            alpha = Math.max(alpha, standPat);
+        } else {
+            if (standPat <= alpha) return standPat;
+            beta = Math.min(beta, standPat);
+        }
+
+        Double value = standPat;
+        for (int move : MinimaxNode.ALL_POSSIBLE_MOVES) {
+            if (!nodeState.isLegalMove(mover, move) || !isTacticalMove(nodeState, mover, move))
+                continue;
+            quiescenceNodes++;
+            if (timeManager.countNode())
+                break;
+            Double childValue = getQuiescenceValue(node.GenerateChildNode(move), alpha, beta, depthLeft - 1);
+            if (maximising) {
+                value = Math.max(value, childValue);
+                alpha = Math.max(value, alpha);
+            } else {
+                value = Math.min(value, childValue);
+                beta = Math.min(value, beta);
+            }
+            if (beta <= alpha) break;
+        }
+        return value;
+    }
+
+
+    // A position is tactical if two heads could move onto the same cell, or a head is right next to the target.
+    private boolean isTactical(GameState state) {
+        for (int i = 0; i < state.getNrPlayers(); i++) {
+            if (state.isDead(i))
+                continue;
+            int headX = state.getHeadX(i);
+            int headY = state.getHeadY(i);
+            if (state.hasTarget() && Math.abs(headX - state.getTargetX()) + Math.abs(headY - state.getTargetY()) == 1)
+                return true;
+            for (int j = i + 1; j < state.getNrPlayers(); j++)
+                if (!state.isDead(j) && Math.abs(headX - state.getHeadX(j)) + Math.abs(headY - state.getHeadY(j)) <= 2)
+                    return true;
+        }
+        return false;
+    }
+
+
+    // A move is tactical if it takes the target, or moves next to another head, contesting the cells around it.
+    private boolean isTacticalMove(GameState state, int player, int move) {
+        int x = state.nextPlayerX(player, move);
+        int y = state.nextPlayerY(player, move);
+        if (x == state.getTargetX() && y == state.getTargetY())
+            return true;
+        for (int i = 0; i < state.getNrPlayers(); i++)
+            if (i != player && !state.isDead(i) && Math.abs(x - state.getHeadX(i)) + Math.abs(y - state.getHeadY(i)) <= 1)
+                return true;
+        return false;
+    }
+}
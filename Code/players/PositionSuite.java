@@ -0,0 +1,248 @@
+package players;
+
+import snake.GameState;
+import snake.Snake;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs a suite of test positions through one or more players and reports how often they find an acceptable move,
+ * and how much time and how many nodes it took them to settle on it.
+ *
+ * A suite file holds positions separated by blank lines; lines starting with # are comments.
+ *     name <name>
+ *     board <width> <height>
+ *     target <x> <y>                         or "target none"
+ *     snake <player> <extensions left> <x>,<y> ...   the body from head to tail, or "snake <player> dead"
+ *     move <player>                          the player to move
+ *     accept <direction> ...                 the acceptable moves, any of N, E, S, W
+ *
+ * Usage: PositionSuite <suite file> [-time ms] [-nodes n] [-v] [player spec ...]
+ * The player specs are those of Snake.createPlayer, by default paranoid, nonparanoid and astar.
+ * With -nodes, the minimax players stop after that many nodes instead of after the time budget.
+ */
+public class PositionSuite {
+
+    private static final String DIRECTIONS = "NESW";
+
+    static class TestPosition {
+        String name;
+        GameState state;
+        int playerToMove;
+        Set<Integer> acceptableMoves = new HashSet<>();
+    }
+
+    static class Outcome {
+        int move;
+        boolean solved;
+        long timeToSolutionMs;
+        long nodesToSolution;
+    }
+
+    private int timeMs;
+    private long nodeLimit;
+
+    public PositionSuite(int timeMs, long nodeLimit) {
+        this.timeMs = timeMs;
+        this.nodeLimit = nodeLimit;
+    }
+
+    public static List<TestPosition> load(String path) throws Exception {
+        List<TestPosition> positions = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("#"))
+                    continue;
+                if (line.isEmpty()) {
+                    if (!lines.isEmpty())
+                        positions.add(parse(lines));
+                    lines.clear();
+                } else
+                    lines.add(line);
+            }
+            if (!lines.isEmpty())
+                positions.add(parse(lines));
+        }
+        return positions;
+    }
+
+    private static TestPosition parse(List<String> lines) throws Exception {
+        TestPosition position = new TestPosition();
+        List<String[]> snakes = new ArrayList<>();
+        int width = 0, height = 0, targetX = -1, targetY = -1;
+        for (String line : lines) {
+            String[] words = line.split("\\s+");
+            switch (words[0]) {
+                case "name":
+                    position.name = line.substring(5).trim();
+                    break;
+                case "board":
+                    width = Integer.parseInt(words[1]);
+                    height = Integer.parseInt(words[2]);
+                    break;
+                case "target":
+                    if (!words[1].equals("none")) {
+                        targetX = Integer.parseInt(words[1]);
+                        targetY = Integer.parseInt(words[2]);
+                    }
+                    break;
+                case "snake":
+                    snakes.add(words);
+                    break;
+                case "move":
+                    position.playerToMove = Integer.parseInt(words[1]);
+                    break;
+                case "accept":
+                    for (int i = 1; i < words.length; i++)
+                        position.acceptableMoves.add(parseDirection(words[i]));
+                    break;
+                default:
+                    throw new IOException("Unknown line in position " + position.name + ": " + line);
+            }
+        }
+
+        // Clear the spawn layout first, so the new snakes cannot overlap the ones they replace
+        position.state = new GameState(snakes.size(), width, height);
+        for (int i = 0; i < snakes.size(); i++)
+            position.state.setPlayer(i, new ArrayList<>(), new ArrayList<>(), 0);
+        for (String[] words : snakes) {
+            int player = Integer.parseInt(words[1]);
+            List<Integer> x = new ArrayList<>();
+            List<Integer> y = new ArrayList<>();
+            int extensionsLeft = 0;
+            if (!words[2].equals("dead")) {
+                extensionsLeft = Integer.parseInt(words[2]);
+                for (int i = 3; i < words.length; i++) {
+                    String[] cell = words[i].split(",");
+                    x.add(Integer.parseInt(cell[0]));
+                    y.add(Integer.parseInt(cell[1]));
+                }
+            }
+            position.state.setPlayer(player, x, y, extensionsLeft);
+        }
+        position.state.setTarget(targetX, targetY);
+        if (position.acceptableMoves.isEmpty())
+            throw new IOException("Position " + position.name + " has no acceptable moves");
+        return position;
+    }
+
+    private static int parseDirection(String word) throws IOException {
+        int index = DIRECTIONS.indexOf(Character.toUpperCase(word.charAt(0)));
+        if (word.length() != 1 || index < 0)
+            throw new IOException("Unknown direction " + word);
+        return new int[]{GameState.NORTH, GameState.EAST, GameState.SOUTH, GameState.WEST}[index];
+    }
+
+    private static String directionName(int move) {
+        switch (move) {
+            case GameState.NORTH: return "N";
+            case GameState.EAST: return "E";
+            case GameState.SOUTH: return "S";
+            case GameState.WEST: return "W";
+            default: return "?";
+        }
+    }
+
+    /*
+     * Lets the player pick a move in the position.
+     * The solution is found at the first completed depth after which the best move stays acceptable,
+     * or at the end of the search if only the final move is acceptable.
+     */
+    public Outcome run(String spec, TestPosition position) throws Exception {
+        GameState state = new GameState(position.state);
+        SnakePlayer player = Snake.createPlayer(spec, state, position.playerToMove, null, timeMs);
+        Outcome outcome = new Outcome();
+        long[] solution = {-1, -1};
+        TimeManager timeManager = null;
+        if (player instanceof BaseMinimaxPlayer) {
+            BaseMinimaxPlayer searcher = (BaseMinimaxPlayer) player;
+            searcher.setUseOpeningBook(false);
+            if (nodeLimit > 0) {
+                searcher.setNodeLimit(nodeLimit);
+            }
+            timeManager = searcher.timeManager;
+            timeManager.setDepthListener((bestMove, elapsedMs, nodes) -> {
+                if (!position.acceptableMoves.contains(bestMove))
+                    solution[0] = -1;
+                else if (solution[0] < 0) {
+                    solution[0] = elapsedMs;
+                    solution[1] = nodes;
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        player.doMove();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        long nodes = timeManager != null ? timeManager.getNodes() : player instanceof AStarPlayer ? ((AStarPlayer) player).nodesExpanded : 0;
+
+        outcome.move = state.getOrientation(position.playerToMove);
+        outcome.solved = position.acceptableMoves.contains(outcome.move);
+        if (outcome.solved && solution[0] >= 0) {
+            outcome.timeToSolutionMs = solution[0];
+            outcome.nodesToSolution = solution[1];
+        } else {
+            outcome.timeToSolutionMs = elapsedMs;
+            outcome.nodesToSolution = nodes;
+        }
+        return outcome;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: PositionSuite <suite file> [-time ms] [-nodes n] [-v] [player spec ...]");
+            return;
+        }
+        int timeMs = 1000;
+        long nodeLimit = 0;
+        boolean verbose = false;
+        List<String> specs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-time"))
+                timeMs = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-nodes"))
+                nodeLimit = Long.parseLong(args[++i]);
+            else if (args[i].equals("-v"))
+                verbose = true;
+            else
+                specs.add(args[i]);
+        }
+        if (specs.isEmpty()) {
+            specs.add("paranoid");
+            specs.add("nonparanoid");
+            specs.add("astar");
+        }
+
+        List<TestPosition> positions = load(args[0]);
+        PositionSuite suite = new PositionSuite(timeMs, nodeLimit);
+        System.out.println(positions.size() + " positions, " + (nodeLimit > 0 ? nodeLimit + " nodes" : timeMs + " ms") + " per move");
+        System.out.printf("%-24s %8s %14s %16s%n", "player", "solved", "avg time (ms)", "avg nodes");
+        for (String spec : specs) {
+            int nrSolved = 0;
+            long totalTimeMs = 0;
+            long totalNodes = 0;
+            for (TestPosition position : positions) {
+                Outcome outcome = suite.run(spec, position);
+                if (outcome.solved) {
+                    nrSolved++;
+                    totalTimeMs += outcome.timeToSolutionMs;
+                    totalNodes += outcome.nodesToSolution;
+                }
+                if (verbose)
+                    System.out.printf("  %-22s %-26s %s %s %6d ms %10d nodes%n", spec, position.name, directionName(outcome.move),
+                            outcome.solved ? "ok  " : "FAIL", outcome.timeToSolutionMs, outcome.nodesToSolution);
+            }
+            System.out.printf("%-24s %4d/%-3d %14.1f %16.1f%n", spec, nrSolved, positions.size(),
+                    nrSolved > 0 ? (double) totalTimeMs / nrSolved : 0, nrSolved > 0 ? (double) totalNodes / nrSolved : 0);
+        }
+    }
+}
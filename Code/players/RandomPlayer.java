@@ -22,6 +22,10 @@ public class RandomPlayer extends SnakePlayer {
         super(state, index, game);
     }
 
+    public static void setRandomSeed(long seed) {
+        rand.setSeed(seed);
+    }
+
     @Override
     public void doMove() {
         doRandomMove();
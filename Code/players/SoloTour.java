@@ -0,0 +1,353 @@
+package players;
+
+import snake.GameState;
+
+import java.util.Arrays;
+
+/**
+ * Moves for a snake that outlived all of its opponents. Bodies of dead snakes are taken off the board, so the game
+ * is then a matter of staying alive and collecting targets on an otherwise empty board, which needs no search at all.
+ *
+ * The board is covered by a fixed Hamiltonian cycle, the tour, built once per board size: a serpentine through the
+ * rows with the first column as the way back. When both sides are odd no such cycle exists, and the tour leaves out
+ * the bottom left corner. A snake whose body lies along the tour behind its head can follow the tour forever, as its
+ * tail always leaves the cell ahead of the head before the head gets there.
+ *
+ * To get to the target sooner, the snake may leave the tour: by a shortest path straight to the target, or by a cut
+ * to a neighbour further ahead on the tour. Either is only taken if following the tour from its end is safe: every
+ * cell on the way is reached only after the segment on it has left, even if the snake eats one more target on the way,
+ * and the head stays at least a body length behind the tail along the tour. The same test brings a snake onto the
+ * tour when it enters the solo game, as its body does not lie along the tour then. The tour itself is never rebuilt;
+ * a body that grew or left the tour is brought back onto it. A move costs a walk along the body and at most one
+ * breadth-first search of the board.
+ */
+class SoloTour {
+
+    private static final int EXTENSIONS_PER_TARGET = 3;
+    private static final int[] MOVES = {GameState.NORTH, GameState.EAST, GameState.SOUTH, GameState.WEST};
+    private static final int[] DX = {0, 1, 0, -1};
+    private static final int[] DY = {-1, 0, 1, 0};
+
+    private final int width;
+    private final int height;
+    private final int player;
+    // The cells of the board in the order of the tour, and the position of every cell in it, -1 if it is left out
+    private final int[] tour;
+    private final int[] tourIndex;
+    // For the cells of the body, the move of the snake in which the segment on it leaves at the latest; 0 elsewhere
+    private final int[] leaveTime;
+    // The same for the body the snake will have once it ate the target along the path
+    private final int[] plannedLeaveTime;
+    // The cell the last move took the head to
+    private int expectedHead = -1;
+    // Shortest path from the head to the target, ending in the target; the head is on path[pathStep - 1]
+    private final int[] path;
+    private int pathLength;
+    private int pathStep;
+    // Scratch space for the breadth-first search of the path, reset through stamps
+    private final int[] queue;
+    private final int[] previous;
+    private final int[] visited;
+    private int visitStamp;
+
+    SoloTour(int width, int height, int player) {
+        this.width = width;
+        this.height = height;
+        this.player = player;
+        tourIndex = new int[width * height];
+        leaveTime = new int[width * height];
+        plannedLeaveTime = new int[width * height];
+        path = new int[width * height];
+        queue = new int[width * height];
+        previous = new int[width * height];
+        visited = new int[width * height];
+        tour = buildTour();
+    }
+
+    boolean fits(GameState state) {
+        return state.getWidth() == width && state.getHeight() == height;
+    }
+
+    // Whether the player is the only snake left alive
+    static boolean isAlone(GameState state, int player) {
+        if (state.isDead(player)) {
+            return false;
+        }
+        for (int i = 0; i < state.getNrPlayers(); i++) {
+            if (i != player && !state.isDead(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The move along the path or the tour, or -1 if the player is not alone or the next cell of the tour is taken
+     * while no other move is safe. The player should then search for a move itself.
+     */
+    int getMove(GameState state) {
+        if (!isAlone(state, player)) {
+            return -1;
+        }
+        int head = state.getHeadX(player) + state.getHeadY(player) * width;
+        int target = state.hasTarget() ? state.getTargetX() + state.getTargetY() * width : -1;
+        boolean onPath = pathStep < pathLength && head == expectedHead;
+
+        int size = state.getSize(player);
+        int extensions = state.getNrExtensionsLeft(player);
+        for (int j = 0; j < size; j++) {
+            leaveTime[state.getSegmentX(player, j) + state.getSegmentY(player, j) * width] = size - j + extensions;
+        }
+        int bestMove = -1;
+        if (onPath || (target >= 0 && isAlongTour(state) && planPath(state, head, target))) {
+            bestMove = getMove(head, path[pathStep]);
+            expectedHead = path[pathStep++];
+        }
+        else {
+            pathLength = 0;
+            int tail = state.getSegmentX(player, size - 1) + state.getSegmentY(player, size - 1) * width;
+            bestMove = getTourMove(head, tail, target, size + extensions + EXTENSIONS_PER_TARGET);
+            expectedHead = bestMove > 0 ? state.nextPlayerX(player, bestMove) + state.nextPlayerY(player, bestMove) * width : -1;
+        }
+        for (int j = 0; j < size; j++) {
+            leaveTime[state.getSegmentX(player, j) + state.getSegmentY(player, j) * width] = 0;
+        }
+        return bestMove;
+    }
+
+    /*
+     * The next move along the tour, or a cut across it that gets closer to the target along the tour. If no move is
+     * safe for the margin, the tour is still followed as long as its next cell is free, the best bet on a full board.
+     */
+    private int getTourMove(int head, int tail, int target, int maxTime) {
+        int bestMove = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        int successor = tourIndex[head] >= 0 ? tour[(tourIndex[head] + 1) % tour.length] : -1;
+        if (successor >= 0 && isSafeToFollow(leaveTime, successor, maxTime)) {
+            bestMove = getMove(head, successor);
+            bestDistance = distance(successor, target);
+        }
+        for (int direction = 0; direction < 4; direction++) {
+            int x = head % width + DX[direction];
+            int y = head / width + DY[direction];
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                continue;
+            }
+            int next = x + y * width;
+            if (next != successor && tourIndex[next] >= 0 && distance(next, target) < bestDistance
+                    && hasRoom(next, tail, maxTime) && isSafeToFollow(leaveTime, next, maxTime)) {
+                bestMove = MOVES[direction];
+                bestDistance = distance(next, target);
+            }
+        }
+        if (bestMove < 0 && successor >= 0 && leaveTime[successor] <= 1) {
+            bestMove = getMove(head, successor);
+        }
+        return bestMove;
+    }
+
+    /*
+     * Looks for a shortest path from the head to the target over the cells that are free by the time the head gets
+     * there, and keeps it if the tour can be followed safely from the target with the body the snake then has.
+     */
+    private boolean planPath(GameState state, int head, int target) {
+        visitStamp++;
+        visited[head] = visitStamp;
+        queue[0] = head;
+        int nrQueued = 1;
+        int depth = 0;
+        boolean found = false;
+        for (int i = 0; i < nrQueued && !found; depth++) {
+            int levelEnd = nrQueued;
+            for (; i < levelEnd && !found; i++) {
+                int cell = queue[i];
+                for (int direction = 0; direction < 4; direction++) {
+                    int x = cell % width + DX[direction];
+                    int y = cell / width + DY[direction];
+                    if (x < 0 || x >= width || y < 0 || y >= height) {
+                        continue;
+                    }
+                    int next = x + y * width;
+                    if (visited[next] != visitStamp && leaveTime[next] <= depth + 1) {
+                        visited[next] = visitStamp;
+                        previous[next] = cell;
+                        queue[nrQueued++] = next;
+                        if (next == target) {
+                            found = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        if (!found) {
+            pathLength = 0;
+            return false;
+        }
+        pathLength = depth;
+        for (int cell = target, step = depth - 1; cell != head; cell = previous[cell], step--) {
+            path[step] = cell;
+        }
+        pathStep = 0;
+
+        // The body after the path: the path with the head on the target, then what is left of the body now
+        int size = state.getSize(player);
+        int extensions = state.getNrExtensionsLeft(player);
+        int grown = Math.min(extensions, pathLength);
+        int plannedSize = size + grown;
+        int plannedExtensions = extensions - grown + EXTENSIONS_PER_TARGET;
+        for (int j = 0; j < plannedSize; j++) {
+            plannedLeaveTime[plannedCell(state, j)] = plannedSize - j + plannedExtensions;
+        }
+        int maxTime = plannedSize + plannedExtensions + EXTENSIONS_PER_TARGET;
+        int plannedTail = plannedCell(state, plannedSize - 1);
+        boolean safe = false;
+        if (tourIndex[target] >= 0) {
+            int successor = tour[(tourIndex[target] + 1) % tour.length];
+            safe = hasRoom(successor, plannedTail, maxTime) && isSafeToFollow(plannedLeaveTime, successor, maxTime);
+        }
+        else {
+            // The cell the tour leaves out; the snake gets back onto the tour through one of its neighbours
+            for (int direction = 0; direction < 4 && !safe; direction++) {
+                int x = target % width + DX[direction];
+                int y = target / width + DY[direction];
+                if (x >= 0 && x < width && y >= 0 && y < height) {
+                    int next = x + y * width;
+                    safe = hasRoom(next, plannedTail, maxTime) && isSafeToFollow(plannedLeaveTime, next, maxTime);
+                }
+            }
+        }
+        for (int j = 0; j < plannedSize; j++) {
+            plannedLeaveTime[plannedCell(state, j)] = 0;
+        }
+        if (!safe) {
+            pathLength = 0;
+        }
+        return safe;
+    }
+
+    // Segment j of the body at the end of the path, counted from the head
+    private int plannedCell(GameState state, int j) {
+        if (j < pathLength) {
+            return path[pathLength - 1 - j];
+        }
+        return state.getSegmentX(player, j - pathLength) + state.getSegmentY(player, j - pathLength) * width;
+    }
+
+    /*
+     * Whether the head can move onto start in the next move and then follow the tour without running into its body.
+     * The segments are assumed to stay EXTENSIONS_PER_TARGET moves longer than they will, which covers one more
+     * target eaten on the way. After maxTime moves every segment has left, and the cells behind the head are its own.
+     */
+    private boolean isSafeToFollow(int[] leaveTimes, int start, int maxTime) {
+        if (maxTime > tour.length) {
+            return false;
+        }
+        int index = tourIndex[start];
+        for (int time = 1; time < maxTime; time++) {
+            int cell = tour[(index + time - 1) % tour.length];
+            if (leaveTimes[cell] > 0 && leaveTimes[cell] + EXTENSIONS_PER_TARGET > time) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Whether the body lies along the tour: from the tail to the head, every segment is further along the tour than
+     * the one before it, within one round. A path to the target is only taken from such a body, so that the body does
+     * not drift further from the tour with every target.
+     */
+    private boolean isAlongTour(GameState state) {
+        int size = state.getSize(player);
+        int tail = state.getSegmentX(player, size - 1) + state.getSegmentY(player, size - 1) * width;
+        if (tourIndex[tail] < 0) {
+            return false;
+        }
+        int span = 0;
+        for (int j = size - 2, cell = tail; j >= 0; j--) {
+            int next = state.getSegmentX(player, j) + state.getSegmentY(player, j) * width;
+            if (tourIndex[next] < 0) {
+                return false;
+            }
+            span += distance(cell, next);
+            cell = next;
+        }
+        return span < tour.length;
+    }
+
+    /*
+     * Whether a head on the cell is far enough behind the tail along the tour for the snake to grow by its extensions
+     * and one more target. A cut skips part of the tour, so a few cuts could otherwise bring the head round to just
+     * behind its own tail, with the body spread over the whole tour, where one target more would be fatal.
+     */
+    private boolean hasRoom(int cell, int tail, int length) {
+        return tourIndex[tail] >= 0 && distance(cell, tail) >= length;
+    }
+
+    // Number of steps along the tour from the cell to the other, the length of the tour if the other is not on it
+    private int distance(int cell, int other) {
+        if (other < 0 || tourIndex[other] < 0) {
+            return tour.length;
+        }
+        return (tourIndex[other] - tourIndex[cell] + tour.length) % tour.length;
+    }
+
+    private int getMove(int from, int to) {
+        for (int direction = 0; direction < 4; direction++) {
+            if (from % width + DX[direction] + (from / width + DY[direction]) * width == to) {
+                return MOVES[direction];
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * The first row from left to right, then the other rows in turns from right to left and back without the first
+     * column, which leads back up to the start. This needs an even number of rows; with an odd number of rows and an
+     * even number of columns the same is done on the columns. If both are odd, the last row is left out of the
+     * serpentine and taken in as detours of the row above it, two cells at a time, which leaves out its first cell.
+     */
+    private int[] buildTour() {
+        boolean transposed = height % 2 != 0 && width % 2 == 0;
+        int columns = transposed ? height : width;
+        int rows = transposed ? width : height;
+        boolean leaveOutCorner = rows % 2 != 0;
+        int serpentineRows = leaveOutCorner ? rows - 1 : rows;
+        int[] cells = new int[leaveOutCorner ? width * height - 1 : width * height];
+        int n = 0;
+        for (int x = 0; x < columns; x++) {
+            cells[n++] = cell(x, 0, transposed);
+        }
+        for (int y = 1; y < serpentineRows; y++) {
+            boolean detours = leaveOutCorner && y == serpentineRows - 1;
+            for (int i = 1; i < columns; i++) {
+                int x = y % 2 != 0 ? columns - i : i;
+                if (detours && (columns - x) % 2 != 0) {
+                    cells[n++] = cell(x, y, transposed);
+                    cells[n++] = cell(x, y + 1, transposed);
+                }
+                else if (detours) {
+                    cells[n++] = cell(x, y + 1, transposed);
+                    cells[n++] = cell(x, y, transposed);
+                }
+                else {
+                    cells[n++] = cell(x, y, transposed);
+                }
+            }
+        }
+        for (int y = serpentineRows - 1; y > 0; y--) {
+            cells[n++] = cell(0, y, transposed);
+        }
+
+        Arrays.fill(tourIndex, -1);
+        for (int i = 0; i < cells.length; i++) {
+            tourIndex[cells[i]] = i;
+        }
+        return cells;
+    }
+
+    private int cell(int x, int y, boolean transposed) {
+        return transposed ? y + x * width : x + y * width;
+    }
+}
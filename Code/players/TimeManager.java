@@ -0,0 +1,175 @@
+package players;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides how long an iterative deepening search may run for each move.
+ * Every move has a nominal budget. Time a move does not use goes into a bank for the rest of the game,
+ * and moves that look difficult may draw on it:
+ *     - the search stops early once the best move has been the same for several completed depths,
+ *       or when the next depth is not expected to finish in time,
+ *     - when the best value drops sharply from one depth to the next, the search is given extra time from the bank.
+ * Whatever is in the bank, a move is never allotted more than MAX_ALLOTTED_FACTOR times its nominal budget.
+ *
+ * With a node limit, the searches are measured in nodes instead of milliseconds and the clock is ignored altogether.
+ * The same position then always gets the same search, whatever the machine, which makes games reproducible.
+ */
+public class TimeManager {
+
+    // Number of completed depths with the same best move after which the search may stop early
+    private static final int STABLE_ITERATIONS = 3;
+    // Fraction of the nominal budget that is always used before stopping because the best move is stable
+    private static final double MINIMUM_FRACTION = 0.25;
+    // Each depth is assumed to take at least this many times as long as the previous one
+    private static final double BRANCHING_ESTIMATE = 2;
+    // A drop in the best value of more than this (about one segment of length difference) counts as trouble
+    private static final double PANIC_DROP = 1;
+    private static final int MAX_BANKED_MOVES = 10;
+    // Nodes between two looks at the hard limit while a depth is searched, see countNode
+    private static final int CHECK_INTERVAL = 64;
+    // No move is allotted more than this many times its nominal budget, bank or not. The nominal budget is the tick
+    // of the game, so a move that takes everything it was allotted delays the next tick by at most half a tick.
+    private static final double MAX_ALLOTTED_FACTOR = 1.5;
+
+    private long nominalMs;
+    private long bankMs = 0;
+    private long startTime;
+    private long allottedMs;
+    // Start and size of the last completed depth, in milliseconds or in nodes with a node limit
+    private long lastIterationStart;
+    private long lastIterationSize;
+    private int previousBestMove;
+    private Double previousBestValue;
+    private int stableIterations;
+    private boolean extended;
+    // Optional fixed budget of searched nodes per move that replaces the time budget, 0 for none
+    private long nodeLimit = 0;
+    // Counted from several threads by the parallel search
+    private final LongAdder nodes = new LongAdder();
+    // Only decides when to look at the limit, so the lost updates of the parallel search do no harm
+    private int nodesSinceCheck;
+    // Set once countNode found the hard limit reached, for the rest of the move
+    private volatile boolean stopped;
+    private DepthListener depthListener;
+
+    // Notified after every completed depth, used by PositionSuite to find out when the right move was found
+    public interface DepthListener {
+        void depthCompleted(int bestMove, long elapsedMs, long nodes);
+    }
+
+    public TimeManager(long nominalMs) {
+        this.nominalMs = nominalMs;
+    }
+
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    public void setDepthListener(DepthListener depthListener) {
+        this.depthListener = depthListener;
+    }
+
+    public void startMove() {
+        startTime = System.currentTimeMillis();
+        lastIterationStart = nodeLimit > 0 ? 0 : startTime;
+        lastIterationSize = 0;
+        allottedMs = capAllotment(nominalMs + bankMs / MAX_BANKED_MOVES);
+        previousBestMove = -1;
+        previousBestValue = null;
+        stableIterations = 0;
+        extended = false;
+        nodes.reset();
+        nodesSinceCheck = 0;
+        stopped = false;
+    }
+
+    private long capAllotment(long ms) {
+        return Math.min(ms, (long) (nominalMs * MAX_ALLOTTED_FACTOR));
+    }
+
+    public long getNominalMs() {
+        return nominalMs;
+    }
+
+    public long getElapsedMs() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    public long getNodes() {
+        return nodes.sum();
+    }
+
+    /*
+     * Called by the searches for every node they visit. Every CHECK_INTERVAL nodes it checks the hard limit of the move,
+     * and from the first time that is reached on it returns true: the search should then unwind,
+     * and the values of the depth it was searching are incomplete.
+     */
+    public boolean countNode() {
+        nodes.increment();
+        if (++nodesSinceCheck >= CHECK_INTERVAL) {
+            nodesSinceCheck = 0;
+            if (isTimeUp())
+                stopped = true;
+        }
+        return stopped;
+    }
+
+    // Whether countNode stopped the search of this move
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    // Hard limit for the current move. The searches check it between root moves, and through countNode inside them.
+    public boolean isTimeUp() {
+        if (nodeLimit > 0)
+            return nodes.sum() >= nodeLimit;
+        return getElapsedMs() >= allottedMs;
+    }
+
+    // Whether the given fraction of the nominal budget of the move, or of the node limit, has been used
+    public boolean isPast(double fraction) {
+        if (nodeLimit > 0)
+            return nodes.sum() >= nodeLimit * fraction;
+        return getElapsedMs() >= nominalMs * fraction;
+    }
+
+    /*
+     * Called after every completed depth with the best move and value found at that depth.
+     * Returns whether the next depth should be searched.
+     */
+    public boolean shouldSearchNextDepth(int bestMove, Double bestValue) {
+        long now = nodeLimit > 0 ? nodes.sum() : System.currentTimeMillis();
+        lastIterationSize = now - lastIterationStart;
+        lastIterationStart = now;
+
+        if (bestMove == previousBestMove)
+            stableIterations++;
+        else
+            stableIterations = 0;
+
+        if (nodeLimit == 0 && !extended && previousBestValue != null && bestValue != null && bestValue < previousBestValue - PANIC_DROP) {
+            allottedMs = capAllotment(nominalMs + bankMs / 2);
+            extended = true;
+        }
+        previousBestMove = bestMove;
+        previousBestValue = bestValue;
+
+        long elapsed = getElapsedMs();
+        if (depthListener != null)
+            depthListener.depthCompleted(bestMove, elapsed, nodes.sum());
+        if (isTimeUp())
+            return false;
+        if (!extended && stableIterations >= STABLE_ITERATIONS && isPast(MINIMUM_FRACTION))
+            return false;
+        if (nodeLimit > 0)
+            return now + lastIterationSize * BRANCHING_ESTIMATE < nodeLimit;
+        return elapsed + lastIterationSize * BRANCHING_ESTIMATE < allottedMs;
+    }
+
+    // Puts the unused part of the nominal budget in the bank, or takes the overrun out of it
+    public void endMove() {
+        if (nodeLimit > 0)
+            return;
+        bankMs = Math.max(0, Math.min(nominalMs * MAX_BANKED_MOVES, bankMs + nominalMs - getElapsedMs()));
+    }
+}
@@ -0,0 +1,46 @@
+package players;
+
+/**
+ * Bounded ring buffer of directions, written by the AWT event thread and read by the game loop.
+ * There is exactly one producer and one consumer, so the two volatile counters are all the synchronisation needed:
+ * the producer only advances tail after writing the slot, and the consumer only advances head after reading it.
+ * When the buffer is full, new key presses are dropped.
+ */
+class TurnQueue {
+
+    private static final int CAPACITY = 8;
+
+    private final int[] turns = new int[CAPACITY];
+    private volatile int head = 0;
+    private volatile int tail = 0;
+    // Only touched by the producer
+    private int lastOffered = -1;
+
+    // Called from the event thread
+    boolean offer(int direction) {
+        int currentTail = tail;
+        if (currentTail - head == CAPACITY) {
+            return false;
+        }
+        turns[currentTail % CAPACITY] = direction;
+        tail = currentTail + 1;
+        lastOffered = direction;
+        return true;
+    }
+
+    // The last direction offered, if it has not been taken yet, otherwise -1. Called from the event thread.
+    int peekLastOffered() {
+        return tail == head ? -1 : lastOffered;
+    }
+
+    // Called from the game loop. Returns -1 if no turn is queued.
+    int poll() {
+        int currentHead = head;
+        if (currentHead == tail) {
+            return -1;
+        }
+        int direction = turns[currentHead % CAPACITY];
+        head = currentHead + 1;
+        return direction;
+    }
+}
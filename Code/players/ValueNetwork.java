@@ -0,0 +1,210 @@
+package players;
+
+import snake.GameState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Small value network that can replace the linear evaluation of the minimax players.
+ * It predicts the outcome of the game for one player, between -1 (lost) and 1 (won), from:
+ *     five binary planes over the board, relative to that player: its own body, the enemy bodies, its own head,
+ *     the enemy heads and the target,
+ *     a few scalars: the length difference with the longest enemy, the proximity of the target and the pending extensions.
+ * One hidden layer of ReLU units sits between the inputs and a tanh output.
+ *
+ * The weights of the binary planes are stored as int8 with a float scale per hidden unit, all other weights as floats.
+ * As the planes are sparse and binary, the first layer is a sum of int8 rows, one per set input. The rows are laid out
+ * input by input, so every row is a contiguous run of nrHidden bytes that the JIT vectorises.
+ *
+ * File format: int magic, int width, int height, int number of hidden units,
+ * then the scales, the int8 plane weights (input major), the float scalar weights (input major),
+ * the hidden biases, the output weights and the output bias.
+ *
+ * The weights are immutable and can be shared; the scratch buffers of an evaluation live in an Evaluator,
+ * so each player (or thread) gets its own and evaluating a leaf does not allocate.
+ */
+public class ValueNetwork {
+
+    static final int MAGIC = 0x534e4b4e; // "SNKN"
+    static final int NR_PLANES = 5;
+    static final int NR_SCALARS = 3;
+    static final int OWN_BODY = 0;
+    static final int ENEMY_BODY = 1;
+    static final int OWN_HEAD = 2;
+    static final int ENEMY_HEAD = 3;
+    static final int TARGET = 4;
+
+    final int width;
+    final int height;
+    final int nrHidden;
+    final float[] scales;
+    final byte[] planeWeights;
+    final float[] scalarWeights;
+    final float[] hiddenBiases;
+    final float[] outputWeights;
+    final float outputBias;
+
+    ValueNetwork(int width, int height, int nrHidden, float[] scales, byte[] planeWeights, float[] scalarWeights,
+                 float[] hiddenBiases, float[] outputWeights, float outputBias) {
+        this.width = width;
+        this.height = height;
+        this.nrHidden = nrHidden;
+        this.scales = scales;
+        this.planeWeights = planeWeights;
+        this.scalarWeights = scalarWeights;
+        this.hiddenBiases = hiddenBiases;
+        this.outputWeights = outputWeights;
+        this.outputBias = outputBias;
+    }
+
+    // Returns the network in the given file, or null if there is no usable network.
+    public static ValueNetwork load(String path) {
+        File file = new File(path);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a value network");
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            int nrHidden = in.readInt();
+            float[] scales = readFloats(in, nrHidden);
+            byte[] planeWeights = new byte[NR_PLANES * width * height * nrHidden];
+            in.readFully(planeWeights);
+            float[] scalarWeights = readFloats(in, NR_SCALARS * nrHidden);
+            float[] hiddenBiases = readFloats(in, nrHidden);
+            float[] outputWeights = readFloats(in, nrHidden);
+            float outputBias = in.readFloat();
+            return new ValueNetwork(width, height, nrHidden, scales, planeWeights, scalarWeights, hiddenBiases, outputWeights, outputBias);
+        } catch (IOException e) {
+            System.err.println("Could not read value network " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void save(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(nrHidden);
+            writeFloats(out, scales);
+            out.write(planeWeights);
+            writeFloats(out, scalarWeights);
+            writeFloats(out, hiddenBiases);
+            writeFloats(out, outputWeights);
+            out.writeFloat(outputBias);
+        }
+    }
+
+    private static float[] readFloats(DataInputStream in, int count) throws IOException {
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readFloat();
+        }
+        return values;
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        for (float value : values) {
+            out.writeFloat(value);
+        }
+    }
+
+    public boolean fits(GameState state) {
+        return state.getWidth() == width && state.getHeight() == height;
+    }
+
+    public Evaluator newEvaluator() {
+        return new Evaluator();
+    }
+
+    static int getNrPlaneInputs(int width, int height) {
+        return NR_PLANES * width * height;
+    }
+
+    /*
+     * Writes the indices of the set plane inputs for the player into active and its scalar inputs into scalars,
+     * and returns the number of set plane inputs. Shared with ValueNetworkTrainer, so training and play see the same inputs.
+     */
+    static int getInputs(GameState state, int player, int[] active, float[] scalars) {
+        int width = state.getWidth();
+        int planeSize = width * state.getHeight();
+        int nrActive = 0;
+        int longestEnemy = 0;
+        for (int i = 0; i < state.getNrPlayers(); i++) {
+            if (state.isDead(i)) {
+                continue;
+            }
+            int size = state.getSize(i);
+            int body = i == player ? OWN_BODY : ENEMY_BODY;
+            for (int j = 0; j < size; j++) {
+                active[nrActive++] = body * planeSize + state.getSegmentX(i, j) + state.getSegmentY(i, j) * width;
+            }
+            active[nrActive++] = (i == player ? OWN_HEAD : ENEMY_HEAD) * planeSize + state.getHeadX(i) + state.getHeadY(i) * width;
+            if (i != player) {
+                longestEnemy = Math.max(longestEnemy, size);
+            }
+        }
+        if (state.hasTarget()) {
+            active[nrActive++] = TARGET * planeSize + state.getTargetX() + state.getTargetY() * width;
+        }
+        int targetDistance = state.getTargetDistance(player);
+        scalars[0] = (state.getSize(player) - longestEnemy) / 10f;
+        scalars[1] = targetDistance == Integer.MAX_VALUE ? 0 : 1f / targetDistance;
+        scalars[2] = state.getNrExtensionsLeft(player) / 3f;
+        return nrActive;
+    }
+
+    /**
+     * Scratch buffers for evaluating positions with the network. Not thread-safe; use one per thread.
+     */
+    public class Evaluator {
+
+        private final int[] active = new int[getNrPlaneInputs(width, height) + 1];
+        private final float[] scalars = new float[NR_SCALARS];
+        private final int[] accumulator = new int[nrHidden];
+
+        // The predicted outcome for the player, between -1 and 1. The player must be alive.
+        public double evaluate(GameState state, int player) {
+            int nrActive = getInputs(state, player, active, scalars);
+            return evaluate(active, nrActive, scalars);
+        }
+
+        // The predicted outcome for inputs as written by getInputs
+        double evaluate(int[] active, int nrActive, float[] scalars) {
+            int hidden = nrHidden;
+            int[] acc = accumulator;
+            for (int j = 0; j < hidden; j++) {
+                acc[j] = 0;
+            }
+            byte[] weights = planeWeights;
+            for (int i = 0; i < nrActive; i++) {
+                int row = active[i] * hidden;
+                for (int j = 0; j < hidden; j++) {
+                    acc[j] += weights[row + j];
+                }
+            }
+            double output = outputBias;
+            for (int j = 0; j < hidden; j++) {
+                double value = hiddenBiases[j] + scales[j] * acc[j];
+                for (int s = 0; s < NR_SCALARS; s++) {
+                    value += scalars[s] * scalarWeights[s * hidden + j];
+                }
+                if (value > 0) {
+                    output += value * outputWeights[j];
+                }
+            }
+            return Math.tanh(output);
+        }
+    }
+}
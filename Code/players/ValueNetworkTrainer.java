@@ -0,0 +1,265 @@
+package players;
+
+import snake.GameState;
+import snake.Snake;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Offline trainer for the value network, on plain CPUs.
+ *
+ * record: plays headless self-play games between existing players and appends, for every position of every game
+ *         and every living player, the network inputs and the final outcome for that player (1 won, -1 lost, 0 no winner).
+ *         Sample file format: int magic, int width, int height, then per sample a byte outcome, a short number of
+ *         set plane inputs, their indices as shorts and the scalar inputs as floats.
+ * train:  fits a float network to the samples with stochastic gradient descent on the squared error,
+ *         then quantises the plane weights to int8 and writes the network file.
+ *
+ * Usage: ValueNetworkTrainer record <sample file> <games> <ms per move> <seed> <player spec...>
+ *        ValueNetworkTrainer train <sample file> <network file> [epochs] [hidden units]
+ */
+public class ValueNetworkTrainer {
+
+    static final int SAMPLES_MAGIC = 0x534e4b53; // "SNKS"
+    private static final int BOARD_SIZE = 20;
+    private static final double LEARNING_RATE = 0.005;
+    private static final double VALIDATION_FRACTION = 0.1;
+
+    private int width;
+    private int height;
+    private List<int[]> actives = new ArrayList<>();
+    private List<float[]> scalars = new ArrayList<>();
+    private List<Float> outcomes = new ArrayList<>();
+
+    public static void record(String path, int nrGames, int moveTimeMs, long seed, String[] specs) throws Exception {
+        boolean append = new File(path).isFile();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path, append)))) {
+            if (!append) {
+                out.writeInt(SAMPLES_MAGIC);
+                out.writeInt(BOARD_SIZE);
+                out.writeInt(BOARD_SIZE);
+            }
+            int[] active = new int[ValueNetwork.getNrPlaneInputs(BOARD_SIZE, BOARD_SIZE) + 1];
+            float[] scalarInputs = new float[ValueNetwork.NR_SCALARS];
+            for (int game = 0; game < nrGames; game++) {
+                List<GameState> history = new ArrayList<>();
+                Snake snake = new Snake(specs, BOARD_SIZE, seed + game, moveTimeMs, history);
+                int winner = snake.getWinner();
+                int nrSamples = 0;
+                for (GameState state : history) {
+                    for (int player = 0; player < state.getNrPlayers(); player++) {
+                        if (state.isDead(player)) {
+                            continue;
+                        }
+                        int nrActive = ValueNetwork.getInputs(state, player, active, scalarInputs);
+                        out.writeByte(winner < 0 ? 0 : winner == player ? 1 : -1);
+                        out.writeShort(nrActive);
+                        for (int i = 0; i < nrActive; i++) {
+                            out.writeShort(active[i]);
+                        }
+                        for (float value : scalarInputs) {
+                            out.writeFloat(value);
+                        }
+                        nrSamples++;
+                    }
+                }
+                System.out.println("game " + (game + 1) + "/" + nrGames + ": winner " + winner + ", " + nrSamples + " samples");
+            }
+        }
+    }
+
+    private void loadSamples(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != SAMPLES_MAGIC) {
+                throw new IOException("Not a sample file");
+            }
+            width = in.readInt();
+            height = in.readInt();
+            while (true) {
+                int outcome;
+                try {
+                    outcome = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                int[] active = new int[in.readUnsignedShort()];
+                for (int i = 0; i < active.length; i++) {
+                    active[i] = in.readUnsignedShort();
+                }
+                float[] scalarInputs = new float[ValueNetwork.NR_SCALARS];
+                for (int i = 0; i < scalarInputs.length; i++) {
+                    scalarInputs[i] = in.readFloat();
+                }
+                actives.add(active);
+                scalars.add(scalarInputs);
+                outcomes.add((float) outcome);
+            }
+        }
+    }
+
+    /*
+     * Trains a float network with one hidden layer. The samples of the last games are held out for validation;
+     * samples of one game are strongly correlated, so a random split would overstate the accuracy.
+     */
+    public ValueNetwork train(String samplePath, int nrEpochs, int nrHidden, long seed) throws IOException {
+        loadSamples(samplePath);
+        int nrSamples = outcomes.size();
+        int nrTraining = (int) (nrSamples * (1 - VALIDATION_FRACTION));
+        int nrPlaneInputs = ValueNetwork.getNrPlaneInputs(width, height);
+        int nrScalars = ValueNetwork.NR_SCALARS;
+        Random rand = new Random(seed);
+
+        float[] planeWeights = new float[nrPlaneInputs * nrHidden];
+        float[] scalarWeights = new float[nrScalars * nrHidden];
+        float[] hiddenBiases = new float[nrHidden];
+        float[] outputWeights = new float[nrHidden];
+        float[] outputBias = new float[1];
+        for (int i = 0; i < planeWeights.length; i++) {
+            planeWeights[i] = (float) (rand.nextGaussian() * 0.05);
+        }
+        for (int i = 0; i < scalarWeights.length; i++) {
+            scalarWeights[i] = (float) (rand.nextGaussian() * 0.1);
+        }
+        for (int j = 0; j < nrHidden; j++) {
+            outputWeights[j] = (float) (rand.nextGaussian() * 0.1);
+        }
+
+        int[] order = new int[nrTraining];
+        for (int i = 0; i < nrTraining; i++) {
+            order[i] = i;
+        }
+        double[] hidden = new double[nrHidden];
+        System.out.println(nrSamples + " samples, " + nrTraining + " for training");
+        for (int epoch = 1; epoch <= nrEpochs; epoch++) {
+            for (int i = nrTraining - 1; i > 0; i--) {
+                int j = rand.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            double trainingError = 0;
+            for (int sample : order) {
+                int[] active = actives.get(sample);
+                float[] scalarInputs = scalars.get(sample);
+                double output = forward(active, scalarInputs, planeWeights, scalarWeights, hiddenBiases, outputWeights, outputBias[0], hidden);
+                double error = output - outcomes.get(sample);
+                trainingError += error * error;
+
+                // Back propagation through tanh, the output layer and the ReLU units, only along the set inputs
+                double outputGradient = error * (1 - output * output);
+                for (int j = 0; j < nrHidden; j++) {
+                    if (hidden[j] <= 0) {
+                        continue;
+                    }
+                    double hiddenGradient = outputGradient * outputWeights[j];
+                    outputWeights[j] -= LEARNING_RATE * outputGradient * hidden[j];
+                    hiddenBiases[j] -= LEARNING_RATE * hiddenGradient;
+                    for (int input : active) {
+                        planeWeights[input * nrHidden + j] -= LEARNING_RATE * hiddenGradient;
+                    }
+                    for (int s = 0; s < nrScalars; s++) {
+                        scalarWeights[s * nrHidden + j] -= LEARNING_RATE * hiddenGradient * scalarInputs[s];
+                    }
+                }
+                outputBias[0] -= LEARNING_RATE * outputGradient;
+            }
+
+            double validationError = 0;
+            int nrCorrect = 0;
+            for (int sample = nrTraining; sample < nrSamples; sample++) {
+                double output = forward(actives.get(sample), scalars.get(sample), planeWeights, scalarWeights, hiddenBiases, outputWeights, outputBias[0], hidden);
+                double error = output - outcomes.get(sample);
+                validationError += error * error;
+                if (Math.signum(output) == Math.signum(outcomes.get(sample))) {
+                    nrCorrect++;
+                }
+            }
+            int nrValidation = Math.max(1, nrSamples - nrTraining);
+            System.out.printf("epoch %d: training error %.4f, validation error %.4f, validation accuracy %.3f%n",
+                    epoch, trainingError / Math.max(1, nrTraining), validationError / nrValidation, (double) nrCorrect / nrValidation);
+        }
+
+        ValueNetwork network = quantise(planeWeights, scalarWeights, hiddenBiases, outputWeights, outputBias[0], nrHidden);
+        ValueNetwork.Evaluator evaluator = network.newEvaluator();
+        double quantisedError = 0;
+        for (int sample = nrTraining; sample < nrSamples; sample++) {
+            int[] active = actives.get(sample);
+            double error = evaluator.evaluate(active, active.length, scalars.get(sample)) - outcomes.get(sample);
+            quantisedError += error * error;
+        }
+        System.out.printf("quantised network: validation error %.4f%n", quantisedError / Math.max(1, nrSamples - nrTraining));
+        return network;
+    }
+
+    private static double forward(int[] active, float[] scalarInputs, float[] planeWeights, float[] scalarWeights,
+                                  float[] hiddenBiases, float[] outputWeights, float outputBias, double[] hidden) {
+        int nrHidden = hidden.length;
+        for (int j = 0; j < nrHidden; j++) {
+            hidden[j] = hiddenBiases[j];
+        }
+        for (int input : active) {
+            int row = input * nrHidden;
+            for (int j = 0; j < nrHidden; j++) {
+                hidden[j] += planeWeights[row + j];
+            }
+        }
+        double output = outputBias;
+        for (int j = 0; j < nrHidden; j++) {
+            for (int s = 0; s < scalarInputs.length; s++) {
+                hidden[j] += scalarInputs[s] * scalarWeights[s * nrHidden + j];
+            }
+            hidden[j] = Math.max(0, hidden[j]);
+            output += hidden[j] * outputWeights[j];
+        }
+        return Math.tanh(output);
+    }
+
+    // Quantises the plane weights of every hidden unit symmetrically to int8, with the largest weight mapped to 127
+    private ValueNetwork quantise(float[] planeWeights, float[] scalarWeights, float[] hiddenBiases, float[] outputWeights,
+                                  float outputBias, int nrHidden) {
+        float[] scales = new float[nrHidden];
+        for (int i = 0; i < planeWeights.length; i++) {
+            int j = i % nrHidden;
+            scales[j] = Math.max(scales[j], Math.abs(planeWeights[i]));
+        }
+        for (int j = 0; j < nrHidden; j++) {
+            scales[j] = scales[j] > 0 ? scales[j] / 127 : 1;
+        }
+        byte[] quantised = new byte[planeWeights.length];
+        for (int i = 0; i < planeWeights.length; i++) {
+            quantised[i] = (byte) Math.round(planeWeights[i] / scales[i % nrHidden]);
+        }
+        return new ValueNetwork(width, height, nrHidden, scales, quantised, scalarWeights.clone(), hiddenBiases.clone(),
+                outputWeights.clone(), outputBias);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 5 && args[0].equals("record")) {
+            record(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), Long.parseLong(args[4]),
+                    Arrays.copyOfRange(args, 5, args.length));
+        }
+        else if (args.length >= 3 && args[0].equals("train")) {
+            int nrEpochs = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            int nrHidden = args.length > 4 ? Integer.parseInt(args[4]) : 32;
+            ValueNetwork network = new ValueNetworkTrainer().train(args[1], nrEpochs, nrHidden, 0);
+            network.save(args[2]);
+            System.out.println("Wrote value network to " + args[2] + ", use it with -Dsnake.network=" + args[2]);
+        }
+        else {
+            System.out.println("Usage: ValueNetworkTrainer record <sample file> <games> <ms per move> <seed> <player spec...>");
+            System.out.println("       ValueNetworkTrainer train <sample file> <network file> [epochs] [hidden units]");
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package snake;
+
+import java.util.Arrays;
+
+/**
+ * Connected components and articulation points of the free cells of the board.
+ * A single iterative depth-first search (Tarjan) over flat arrays gives, for every free cell, its component,
+ * its discovery number, its low link and the size of its subtree. Since the cells of a subtree have consecutive
+ * discovery numbers, this is enough to tell in constant time into which parts a component falls apart when
+ * one cell of it is blocked, and how large these parts are.
+ *
+ * The analysis only depends on the occupancy of the board, so it is shared between a game state and the states
+ * forked from it until a snake moves (for instance by all the children of a chance node). Most moves do not need it
+ * at all: a cell that does not split the free cells around it (see splitsNeighbours) leaves a single region behind,
+ * which isDeadEndByFill measures with a flood fill that stops as soon as the region is large enough.
+ *
+ * Analyses are not allocated per state but taken from the SearchArena of the thread and redone for another state
+ * later; the stamp tells a state whether the analysis it holds is still its own.
+ */
+class FreeSpaceAnalysis {
+
+    private static final int[] DX = {0, 1, 0, -1};
+    private static final int[] DY = {-1, 0, 1, 0};
+
+    private final SearchArena arena;
+    private final int width;
+    private final int height;
+    private final boolean[] free;
+    private final int[] component;
+    private final int[] componentSize;
+    private final int[] discovery;
+    private final int[] low;
+    private final int[] parent;
+    private final int[] subtreeSize;
+    // Raised by every analyse, so the states analysed before can tell the analysis is no longer theirs
+    private int stamp;
+
+    FreeSpaceAnalysis(SearchArena arena, int width, int height) {
+        this.arena = arena;
+        this.width = width;
+        this.height = height;
+        int nrCells = width * height;
+        free = new boolean[nrCells];
+        component = new int[nrCells];
+        componentSize = new int[nrCells];
+        discovery = new int[nrCells];
+        low = new int[nrCells];
+        parent = new int[nrCells];
+        subtreeSize = new int[nrCells];
+    }
+
+    boolean fits(GameState state) {
+        return width == state.width && height == state.height;
+    }
+
+    // Whether this is still the analysis made when stamp was handed out, on the thread that asks
+    boolean isCurrent(int stamp) {
+        return arena == SearchArena.get() && this.stamp == stamp;
+    }
+
+    int getStamp() {
+        return stamp;
+    }
+
+    void analyse(GameState state) {
+        stamp++;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                free[x + y * width] = !state.isOccupied(x, y);
+            }
+        }
+        search();
+    }
+
+    private int neighbour(int cell, int direction) {
+        int x = cell % width + DX[direction];
+        int y = cell / width + DY[direction];
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return -1;
+        }
+        return x + y * width;
+    }
+
+    private void search() {
+        int nrCells = width * height;
+        int[] stack = arena.getStack(nrCells);
+        int[] nextDirection = arena.getNextDirection(nrCells);
+        Arrays.fill(discovery, -1);
+        int time = 0;
+        int nrComponents = 0;
+        for (int root = 0; root < nrCells; root++) {
+            if (!free[root] || discovery[root] >= 0) {
+                continue;
+            }
+            int stackSize = 0;
+            stack[stackSize++] = root;
+            discovery[root] = low[root] = time++;
+            parent[root] = -1;
+            subtreeSize[root] = 1;
+            while (stackSize > 0) {
+                int cell = stack[stackSize - 1];
+                if (nextDirection[cell] < 4) {
+                    int next = neighbour(cell, nextDirection[cell]++);
+                    if (next < 0 || !free[next]) {
+                        continue;
+                    }
+                    if (discovery[next] < 0) {
+                        discovery[next] = low[next] = time++;
+                        parent[next] = cell;
+                        subtreeSize[next] = 1;
+                        stack[stackSize++] = next;
+                    }
+                    else if (next != parent[cell]) {
+                        low[cell] = Math.min(low[cell], discovery[next]);
+                    }
+                }
+                else {
+                    stackSize--;
+                    // The arena hands the directions out zeroed
+                    nextDirection[cell] = 0;
+                    component[cell] = nrComponents;
+                    if (parent[cell] >= 0) {
+                        low[parent[cell]] = Math.min(low[parent[cell]], low[cell]);
+                        subtreeSize[parent[cell]] += subtreeSize[cell];
+                    }
+                }
+            }
+            componentSize[nrComponents++] = subtreeSize[root];
+        }
+    }
+
+    /*
+     * Whether a head that moves onto the free cell (x, y) of the analysed state is trapped: every region it can
+     * continue into once (x, y) is blocked holds fewer than length cells, and no segment next to the region or to
+     * (x, y) moves out of the way before the snake has filled the region (see getOpenings).
+     */
+    boolean isDeadEnd(GameState state, int x, int y, int length) {
+        int cell = x + y * width;
+        if (!free[cell]) {
+            return false;
+        }
+        int separatedSize = 0;
+        for (int direction = 0; direction < 4; direction++) {
+            int child = neighbour(cell, direction);
+            if (isSeparatedChild(cell, child)) {
+                separatedSize += subtreeSize[child];
+            }
+        }
+        int restSize = componentSize[component[cell]] - 1 - separatedSize;
+
+        int[] openings = arena.getStack(4 * width * height);
+        boolean hasFreeNeighbour = false;
+        for (int direction = 0; direction < 4; direction++) {
+            int next = neighbour(cell, direction);
+            if (next < 0 || !free[next]) {
+                continue;
+            }
+            hasFreeNeighbour = true;
+            int part = getPart(cell, next);
+            int partSize = part >= 0 ? subtreeSize[part] : restSize;
+            if (partSize >= length) {
+                return false;
+            }
+            int nrOpenings = getOpenings(state, partSize, openings);
+            for (int i = 0; i < nrOpenings; i++) {
+                int other = openings[i];
+                if (other == cell || (component[other] == component[cell] && getPart(cell, other) == part)) {
+                    return false;
+                }
+            }
+        }
+        if (!hasFreeNeighbour) {
+            int nrOpenings = getOpenings(state, 0, openings);
+            for (int i = 0; i < nrOpenings; i++) {
+                if (openings[i] == cell) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Whether the free cells next to the free cell (x, y) fall apart into more than one group once (x, y) is blocked,
+     * as far as the eight cells around it tell. If they do not, (x, y) is no articulation point.
+     */
+    static boolean splitsNeighbours(GameState state, int x, int y) {
+        int nrFree = 0;
+        int nrLinks = 0;
+        for (int direction = 0; direction < 4; direction++) {
+            int next = (direction + 1) % 4;
+            boolean free = state.isFree(x + DX[direction], y + DY[direction]);
+            if (free) {
+                nrFree++;
+            }
+            // Two neighbours next to each other around the corner are linked through the corner cell
+            if (free && state.isFree(x + DX[next], y + DY[next])
+                    && state.isFree(x + DX[direction] + DX[next], y + DY[direction] + DY[next])) {
+                nrLinks++;
+            }
+        }
+        return nrLinks < 4 && nrFree - nrLinks > 1;
+    }
+
+    /*
+     * isDeadEnd for a free cell that does not split its neighbours, without an analysis: the free cells it can continue
+     * into are a single region, which is flood filled until it turns out to hold length cells.
+     */
+    static boolean isDeadEndByFill(GameState state, int x, int y, int length) {
+        int width = state.width;
+        int nrCells = width * state.height;
+        SearchArena arena = SearchArena.get();
+        int[] queue = arena.getQueue(nrCells);
+        boolean[] queued = arena.getQueued(nrCells);
+        // The cell itself comes first in the queue, the region is the rest
+        queue[0] = x + y * width;
+        queued[queue[0]] = true;
+        int queueEnd = 1;
+        for (int queueStart = 0; queueStart < queueEnd && queueEnd <= length; queueStart++) {
+            int cellX = queue[queueStart] % width;
+            int cellY = queue[queueStart] / width;
+            for (int direction = 0; direction < 4; direction++) {
+                int nextX = cellX + DX[direction];
+                int nextY = cellY + DY[direction];
+                if (state.isFree(nextX, nextY) && !queued[nextX + nextY * width]) {
+                    queued[nextX + nextY * width] = true;
+                    queue[queueEnd++] = nextX + nextY * width;
+                }
+            }
+        }
+        int regionSize = queueEnd - 1;
+        boolean deadEnd = regionSize < length;
+        if (deadEnd) {
+            int[] openings = arena.getStack(4 * nrCells);
+            int nrOpenings = getOpenings(state, regionSize, openings);
+            for (int i = 0; i < nrOpenings && deadEnd; i++) {
+                deadEnd = !queued[openings[i]];
+            }
+        }
+        for (int i = 0; i < queueEnd; i++) {
+            queued[queue[i]] = false;
+        }
+        return deadEnd;
+    }
+
+    /*
+     * Collects the free cells next to a segment that moves out of the way in time to let a snake out of a region of
+     * regionSize cells: the snake moves into the region and at most regionSize times within it, and may need its next
+     * move one step later than a snake that moves before it. A snake vacates its tail once it has grown the extensions
+     * it still has, and one segment further up with every move after that. A cell may be collected more than once.
+     * Returns the number of cells collected.
+     */
+    private static int getOpenings(GameState state, int regionSize, int[] openings) {
+        int nrMoves = regionSize + 2;
+        int nrOpenings = 0;
+        for (int i = 0; i < state.nrPlayers; i++) {
+            if (state.dead[i]) {
+                continue;
+            }
+            int size = state.getSize(i);
+            for (int j = Math.max(0, size + state.nrExtensionsLeft[i] - nrMoves); j < size; j++) {
+                for (int direction = 0; direction < 4; direction++) {
+                    int x = state.getSegmentX(i, j) + DX[direction];
+                    int y = state.getSegmentY(i, j) + DY[direction];
+                    if (state.isFree(x, y)) {
+                        openings[nrOpenings++] = x + y * state.width;
+                    }
+                }
+            }
+        }
+        return nrOpenings;
+    }
+
+    // A child in the search tree whose subtree is cut off from the rest of the component when cell is blocked
+    private boolean isSeparatedChild(int cell, int child) {
+        return child >= 0 && free[child] && parent[child] == cell && low[child] >= discovery[cell];
+    }
+
+    // The separated child of cell whose subtree contains other, or -1 if other stays connected to the rest of the component
+    private int getPart(int cell, int other) {
+        for (int direction = 0; direction < 4; direction++) {
+            int child = neighbour(cell, direction);
+            if (isSeparatedChild(cell, child) && discovery[other] >= discovery[child]
+                    && discovery[other] < discovery[child] + subtreeSize[child]) {
+                return child;
+            }
+        }
+        return -1;
+    }
+}
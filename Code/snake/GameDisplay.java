@@ -1,23 +1,27 @@
 package snake;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.event.KeyListener;
 import java.awt.image.BufferedImage;
-import java.util.List;
-import java.util.Set;
-import javax.swing.ImageIcon;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
 
 /**
+ * The game loop only publishes an immutable snapshot of the state into a single slot mailbox, which never blocks.
+ * A separate render thread picks up the latest snapshot at its own frame rate and draws it; snapshots published
+ * in between two frames are simply replaced, so the game loop never waits for painting.
  *
  * @author steven
  */
 public class GameDisplay {
 
+    static final int FRAMES_PER_SECOND = 60;
+
     private JFrame frame;
     private GameState current;
     private int nrRows;
@@ -30,6 +34,7 @@ public class GameDisplay {
     BufferedImage bufferImage;
     BufferedImage screenImage;
     static Color[] colors = {new Color(50, 100, 200), new Color(200, 100, 50), new Color(200, 200, 50), new Color(100, 100, 50)};
+    private final AtomicReference<GameSnapshot> mailbox = new AtomicReference<>();
 
     public GameDisplay(GameState state) throws Exception {
         width = state.getWidth() * cellSize;
@@ -42,6 +47,9 @@ public class GameDisplay {
         }
         initFrame();
         updateState();
+        Thread renderThread = new Thread(this::render, "snake-render");
+        renderThread.setDaemon(true);
+        renderThread.start();
     }
 
     private void initFrame() {
@@ -56,8 +64,15 @@ public class GameDisplay {
         hints.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
         bufferGraphics.addRenderingHints(hints);
 
-        ImageIcon icon = new ImageIcon(screenImage);
-        JLabel draw = new JLabel(icon);
+        JComponent draw = new JComponent() {
+            @Override
+            protected void paintComponent(Graphics g) {
+                synchronized (screenImage) {
+                    g.drawImage(screenImage, 0, 0, null);
+                }
+            }
+        };
+        draw.setPreferredSize(new Dimension(width, height));
         frame = new JFrame();
         frame.setContentPane(draw);
         frame.setResizable(false);
@@ -68,35 +83,60 @@ public class GameDisplay {
         frame.setVisible(true);
     }
 
-    public void updateState() {        
-        for (int i = 0; i < current.getHeight(); i++) {
-            for (int j = 0; j < current.getWidth(); j++) {
-                bufferGraphics.setColor(new Color(0, 0, 0));
-                bufferGraphics.fillRect(i * cellSize, j * cellSize, cellSize, cellSize);
+    // Called by the game loop after every move: takes a snapshot of the state for the render thread
+    public void updateState() {
+        mailbox.set(new GameSnapshot(current));
+    }
+
+    private void render() {
+        long frameNanos = 1000000000L / FRAMES_PER_SECOND;
+        long nextFrame = System.nanoTime();
+        while (true) {
+            GameSnapshot snapshot = mailbox.getAndSet(null);
+            if (snapshot != null) {
+                draw(snapshot);
+                synchronized (screenImage) {
+                    screenGraphics.drawImage(bufferImage, 0, 0, null);
+                }
+                frame.repaint();
+            }
+            nextFrame += frameNanos;
+            long sleepNanos = nextFrame - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            else {
+                nextFrame = System.nanoTime();
             }
         }
+    }
+
+    private void draw(GameSnapshot snapshot) {
+        bufferGraphics.setColor(new Color(0, 0, 0));
+        bufferGraphics.fillRect(0, 0, width, height);
         for (int i = 0; i < nrPlayers; i++) {
-            drawPlayer(current.getPlayerX(i), current.getPlayerY(i), colors[i]);
+            drawPlayer(snapshot.playerX[i], snapshot.playerY[i], colors[i]);
         }
-        drawTarget(current.getTargetX(),current.getTargetY());
-        screenGraphics.drawImage(bufferImage, 0, 0, null);
-        frame.repaint();
-
+        drawTarget(snapshot.targetX, snapshot.targetY);
     }
 
-    private void drawPlayer(List<Integer> x, List<Integer> y, Color col) {
-        for (int i = 0; i < x.size(); i++) {
+    private void drawPlayer(int[] x, int[] y, Color col) {
+        for (int i = 0; i < x.length; i++) {
             bufferGraphics.setColor(col);
-            bufferGraphics.fillRect(x.get(i) * cellSize, y.get(i) * cellSize, cellSize, cellSize);
+            bufferGraphics.fillRect(x[i] * cellSize, y[i] * cellSize, cellSize, cellSize);
         }
     }
 
-    private void drawTarget(int x, int y) {        
+    private void drawTarget(int x, int y) {
             bufferGraphics.setColor(new Color(250,250,0));
             bufferGraphics.fillOval(x*cellSize, y*cellSize,cellSize,cellSize);
-        
+
     }
-    
+
     public void addKeyListener(KeyListener list) {
         frame.addKeyListener(list);
     }
@@ -0,0 +1,33 @@
+package snake;
+
+/**
+ * Immutable copy of what GameDisplay draws: the snake bodies and the target.
+ * The game loop takes one after each move and hands it to the render thread, which never touches the live GameState.
+ */
+final class GameSnapshot {
+
+    final int width;
+    final int height;
+    final int[][] playerX;
+    final int[][] playerY;
+    final int targetX;
+    final int targetY;
+
+    GameSnapshot(GameState state) {
+        width = state.width;
+        height = state.height;
+        playerX = new int[state.nrPlayers][];
+        playerY = new int[state.nrPlayers][];
+        for (int i = 0; i < state.nrPlayers; i++) {
+            int size = state.getSize(i);
+            playerX[i] = new int[size];
+            playerY[i] = new int[size];
+            for (int j = 0; j < size; j++) {
+                playerX[i][j] = state.getSegmentX(i, j);
+                playerY[i][j] = state.getSegmentY(i, j);
+            }
+        }
+        targetX = state.targetX;
+        targetY = state.targetY;
+    }
+}
@@ -3,7 +3,6 @@ package snake;/*
  * and open the template in the editor.
  */
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
@@ -15,9 +14,10 @@ public class GameState {
 
     int width;
     int height;
-    boolean[][] occupied;
-    List<Integer>[] playerX;
-    List<Integer>[] playerY;
+    // One bit per cell, shared with the states forked from this one until either side writes to it
+    long[] occupied;
+    boolean occupiedShared;
+    SnakeBody[] bodies;
     int[] playerOrientation;
     int[] lastPlayerOrientation;
     public static final int NORTH = 1;
@@ -32,74 +32,79 @@ public class GameState {
     int nrDead;
     int nrPlayers;
     int[] nrExtensionsLeft;
+    // Number of moves made so far, by any player
     int stepCount;
+    TargetDistanceField targetDistanceField;
+    int targetDistanceStamp;
+    int[] changedCells = new int[8];
+    int nrChangedCells;
+    long positionKey;
+    FreeSpaceAnalysis freeSpaceAnalysis;
+    int freeSpaceStamp;
 
+    /*
+     * Forks a state. The occupancy bits and the snake cells are shared with the original rather than copied,
+     * so a fork costs the same whatever the size of the board and the length of the snakes;
+     * see SnakeBody for how the snakes can then move independently.
+     */
     public GameState(GameState st) {
+        Metrics.countStateCopy();
+        st.updateTargetDistanceField();
         width = st.width;
         height = st.height;
         targetX = st.targetX;
         targetY = st.targetY;
         nrDead = st.nrDead;
         nrPlayers = st.nrPlayers;
-        occupied = new boolean[width][height];
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                occupied[i][j] = st.occupied[i][j];
-            }
-        }
-        playerX = new List[nrPlayers];
-        playerY = new List[nrPlayers];
-        playerOrientation = new int[nrPlayers];
-        lastPlayerOrientation = new int[nrPlayers];
-        dead = new boolean[nrPlayers];
-        nrExtensionsLeft = new int[nrPlayers];
+        occupied = st.occupied;
+        occupiedShared = true;
+        st.occupiedShared = true;
+        bodies = new SnakeBody[nrPlayers];
         for (int i = 0; i < nrPlayers; i++) {
-            playerX[i] = new ArrayList(st.playerX[i]);
-            playerY[i] = new ArrayList(st.playerY[i]);
-            playerOrientation[i] = st.playerOrientation[i];
-            lastPlayerOrientation[i] = st.lastPlayerOrientation[i];
-            dead[i] = st.dead[i];
-            nrExtensionsLeft[i] = st.nrExtensionsLeft[i];
+            bodies[i] = new SnakeBody(st.bodies[i]);
         }
+        playerOrientation = st.playerOrientation.clone();
+        lastPlayerOrientation = st.lastPlayerOrientation.clone();
+        dead = st.dead.clone();
+        nrExtensionsLeft = st.nrExtensionsLeft.clone();
         stepCount = st.stepCount;
+        targetDistanceField = st.targetDistanceField;
+        targetDistanceStamp = st.targetDistanceStamp;
+        changedCells = st.changedCells.clone();
+        nrChangedCells = st.nrChangedCells;
+        positionKey = st.positionKey;
+        freeSpaceAnalysis = st.freeSpaceAnalysis;
+        freeSpaceStamp = st.freeSpaceStamp;
     }
 
     public GameState(int nrPlayers, int width, int height) throws Exception {
         this.width = width;
         this.height = height;
-        occupied = new boolean[width][height];
-        playerX = new List[nrPlayers];
-        playerY = new List[nrPlayers];
+        occupied = new long[(width * height + 63) / 64];
+        bodies = new SnakeBody[nrPlayers];
         playerOrientation = new int[nrPlayers];
         lastPlayerOrientation = new int[nrPlayers];
         nrExtensionsLeft = new int[nrPlayers];
         for (int i = 0; i < nrPlayers; i++) {
-            playerX[i] = new ArrayList();
-            playerY[i] = new ArrayList();
+            bodies[i] = new SnakeBody();
             nrExtensionsLeft[i] = 3;
         }
         if (width <= 10 || height <= 10) {
             throw new Exception("Board size too small");
         }
         if (nrPlayers == 2) {
-            playerX[0].add(width / 3);
-            playerX[1].add((2 * width) / 3);
-            playerY[0].add(height / 2);
-            playerY[1].add(height / 2);
+            bodies[0].addHead(width / 3, height / 2);
+            bodies[1].addHead((2 * width) / 3, height / 2);
             playerOrientation[0] = NORTH;
             playerOrientation[1] = NORTH;
             lastPlayerOrientation[0] = NORTH;
             lastPlayerOrientation[1] = NORTH;
         }
         else if (nrPlayers == 4) {
-            playerX[0].add(width / 3);
-            playerX[1].add((2 * width) / 3);
-            playerX[2].add(width / 3);
-            playerX[3].add((2 * width) / 3);
-            playerY[0].add(height / 2 - 1);
-            playerY[1].add(height / 2 - 1);
-            playerY[2].add(height / 2);
-            playerY[3].add(height / 2);
+            bodies[0].addHead(width / 3, height / 2 - 1);
+            bodies[1].addHead((2 * width) / 3, height / 2 - 1);
+            bodies[2].addHead(width / 3, height / 2);
+            bodies[3].addHead((2 * width) / 3, height / 2);
             playerOrientation[0] = NORTH;
             playerOrientation[1] = NORTH;
             playerOrientation[2] = SOUTH;
@@ -114,12 +119,17 @@ public class GameState {
         }
         dead = new boolean[nrPlayers];
         for (int i = 0; i < nrPlayers; i++) {
-            occupied[playerX[i].get(0)][playerY[i].get(0)] = true;
+            setOccupied(bodies[i].getX(0), bodies[i].getY(0), true);
         }
         nrDead = 0;
         this.nrPlayers = nrPlayers;
         chooseNextTarget();
         stepCount = 0;
+        positionKey = computePositionKey();
+    }
+
+    public static void setRandomSeed(long seed) {
+        rand.setSeed(seed);
     }
 
     public int getWidth() {
@@ -134,12 +144,30 @@ public class GameState {
         return nrPlayers;
     }
 
+    // Read-only views of the x and y coordinates of the snake, from head to tail
     public List<Integer> getPlayerX(int i) {
-        return playerX[i];
+        return bodies[i].xView();
     }
 
     public List<Integer> getPlayerY(int i) {
-        return playerY[i];
+        return bodies[i].yView();
+    }
+
+    public int getHeadX(int player) {
+        return bodies[player].getX(0);
+    }
+
+    public int getHeadY(int player) {
+        return bodies[player].getY(0);
+    }
+
+    // Coordinates of a segment of the snake, counted from the head
+    public int getSegmentX(int player, int index) {
+        return bodies[player].getX(index);
+    }
+
+    public int getSegmentY(int player, int index) {
+        return bodies[player].getY(index);
     }
 
     public int getTargetX() {
@@ -151,11 +179,31 @@ public class GameState {
     }
 
     public int getSize(int index){
-        return playerX[index].size();
+        return bodies[index].size();
     }
     
     public boolean isOccupied(int x, int y) {
-        return occupied[x][y];
+        int cell = x + y * width;
+        return (occupied[cell >> 6] & (1L << cell)) != 0;
+    }
+
+    private void setOccupied(int x, int y, boolean value) {
+        if (occupiedShared) {
+            occupied = occupied.clone();
+            occupiedShared = false;
+        }
+        int cell = x + y * width;
+        if (value) {
+            occupied[cell >> 6] |= 1L << cell;
+        }
+        else {
+            occupied[cell >> 6] &= ~(1L << cell);
+        }
+    }
+
+    // Number of moves made so far, as counted by the game against Snake.MAX_NR_STEPS
+    public int getStepCount() {
+        return stepCount;
     }
 
     public boolean isGameOver() {
@@ -166,21 +214,190 @@ public class GameState {
         return lastPlayerOrientation[player];
     }
 
+    public int getOrientation(int player) {
+        return playerOrientation[player];
+    }
+
     public void setOrientation(int player, int dir) {
         playerOrientation[player] = dir;
     }
 
+    public int getNrExtensionsLeft(int player) {
+        return nrExtensionsLeft[player];
+    }
+
+    public void setTarget(int x, int y) {
+        positionKey ^= targetKey(targetX, targetY) ^ targetKey(x, y);
+        targetX = x;
+        targetY = y;
+    }
+
+    /*
+     * Replaces the snake of the given player, for setting up arbitrary positions.
+     * The body is given from head to tail; an empty body means the player is dead.
+     * The player is assumed to have last moved from the second segment onto the head.
+     */
+    public void setPlayer(int player, List<Integer> x, List<Integer> y, int extensionsLeft) {
+        for (int i = 0; i < bodies[player].size(); i++) {
+            setOccupied(bodies[player].getX(i), bodies[player].getY(i), false);
+        }
+        if (dead[player]) {
+            nrDead--;
+        }
+        bodies[player] = new SnakeBody();
+        for (int i = x.size() - 1; i >= 0; i--) {
+            bodies[player].addHead(x.get(i), y.get(i));
+            setOccupied(x.get(i), y.get(i), true);
+        }
+        dead[player] = x.isEmpty();
+        if (dead[player]) {
+            nrDead++;
+        }
+        nrExtensionsLeft[player] = extensionsLeft;
+        int orientation = NORTH;
+        if (x.size() > 1) {
+            int dx = x.get(0) - x.get(1);
+            int dy = y.get(0) - y.get(1);
+            if (dx > 0) {
+                orientation = EAST;
+            }
+            else if (dx < 0) {
+                orientation = WEST;
+            }
+            else if (dy > 0) {
+                orientation = SOUTH;
+            }
+        }
+        playerOrientation[player] = orientation;
+        lastPlayerOrientation[player] = orientation;
+        targetDistanceField = null;
+        nrChangedCells = 0;
+        freeSpaceAnalysis = null;
+        positionKey = computePositionKey();
+    }
+
+    /*
+     * 64 bit key identifying the position: the board size, the target and, for every player,
+     * whether it is alive, its pending extensions, the cells of its body and which of them are its head and tail.
+     * The key is a xor of one term per feature, so updatePlayerPosition keeps it up to date in constant time.
+     */
+    public long getPositionKey() {
+        return positionKey;
+    }
+
+    long computePositionKey() {
+        long key = mix(width * 65536L + height);
+        key ^= targetKey(targetX, targetY);
+        for (int i = 0; i < nrPlayers; i++) {
+            if (dead[i]) {
+                key ^= featureKey(5, i, 0);
+            }
+            else {
+                for (int j = 0; j < bodies[i].size(); j++) {
+                    key ^= segmentKey(i, bodies[i].getX(j), bodies[i].getY(j));
+                }
+                key ^= playerEndsKey(i);
+            }
+        }
+        return key;
+    }
+
+    private long playerEndsKey(int player) {
+        SnakeBody body = bodies[player];
+        int size = body.size();
+        return featureKey(2, player, body.getX(0) * 65536L + body.getY(0))
+                ^ featureKey(3, player, body.getX(size - 1) * 65536L + body.getY(size - 1))
+                ^ featureKey(4, player, nrExtensionsLeft[player]);
+    }
+
+    private static long segmentKey(int player, int x, int y) {
+        return featureKey(1, player, x * 65536L + y);
+    }
+
+    private static long targetKey(int x, int y) {
+        return featureKey(0, 0, (x + 1) * 65536L + y + 1);
+    }
+
+    private static long featureKey(int feature, int player, long value) {
+        return mix(mix(feature * 16L + player + 1) ^ value);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
     public void chooseNextTarget() {
-        targetX = rand.nextInt(width);
-        targetY = rand.nextInt(height);
-        while (occupied[targetX][targetY]) {
-            targetX = rand.nextInt(width);
-            targetY = rand.nextInt(height);
+        chooseNextTarget(rand);
+    }
+
+    /*
+     * Puts the target on a random free cell drawn from the given generator. The searches draw their samples from
+     * generators of their own, so that they do not change the targets of the game itself.
+     */
+    public void chooseNextTarget(Random random) {
+        // A snake that fills the whole board leaves no cell for the target
+        int nrOccupied = 0;
+        for (long word : occupied) {
+            nrOccupied += Long.bitCount(word);
+        }
+        if (nrOccupied == width * height) {
+            return;
+        }
+        positionKey ^= targetKey(targetX, targetY);
+        targetX = random.nextInt(width);
+        targetY = random.nextInt(height);
+        while (isOccupied(targetX, targetY)) {
+            targetX = random.nextInt(width);
+            targetY = random.nextInt(height);
+        }
+        positionKey ^= targetKey(targetX, targetY);
+    }
+
+    /*
+     * Number of steps the given player needs to reach the target, or Integer.MAX_VALUE if it cannot be reached.
+     * The distances are shared with the states this state was forked from and only repaired where snakes moved.
+     */
+    public int getTargetDistance(int player) {
+        if (dead[player] || !hasTarget()) {
+            return Integer.MAX_VALUE;
+        }
+        updateTargetDistanceField();
+        return targetDistanceField.getDistance(bodies[player].getX(0), bodies[player].getY(0));
+    }
+
+    private void updateTargetDistanceField() {
+        if (!hasTarget()) {
+            return;
+        }
+        if (targetDistanceField == null || !targetDistanceField.isCurrent(targetDistanceStamp)
+                || !targetDistanceField.hasSameTarget(this) || nrChangedCells > changedCells.length) {
+            targetDistanceField = SearchArena.get().getTargetDistances(this, null, null, 0);
         }
+        else if (nrChangedCells > 0) {
+            targetDistanceField = SearchArena.get().getTargetDistances(this, targetDistanceField, changedCells, nrChangedCells);
+        }
+        targetDistanceStamp = targetDistanceField.getStamp();
+        nrChangedCells = 0;
+    }
+
+    /*
+     * Remembers a cell whose occupancy may have changed since the target distances were last computed.
+     * Once too many cells have changed, the distances are simply rebuilt.
+     */
+    private void markChanged(int x, int y) {
+        if (targetDistanceField == null) {
+            return;
+        }
+        if (nrChangedCells < changedCells.length) {
+            changedCells[nrChangedCells] = x + y * width;
+        }
+        nrChangedCells++;
     }
 
     public int nextPlayerX(int player, int move) {
-        int headX = playerX[player].get(0);
+        int headX = bodies[player].getX(0);
         if (move == EAST) {
             return headX + 1;
         }
@@ -191,7 +408,7 @@ public class GameState {
     }
 
     public int nextPlayerY(int player, int move) {
-        int headY = playerY[player].get(0);
+        int headY = bodies[player].getY(0);
         if (move == NORTH) {
             return headY - 1;
         }
@@ -208,7 +425,29 @@ public class GameState {
     }
 
     public boolean isFree(int x, int y) {
-        return (x >= 0 && x < width && y >= 0 && y < height && !occupied[x][y]);
+        return (x >= 0 && x < width && y >= 0 && y < height && !isOccupied(x, y));
+    }
+
+    /*
+     * Whether the move leads the player into a pocket of free cells too small to hold it (its length plus the
+     * extensions it still has to grow) that no snake opens up in time by moving out of the way.
+     * Illegal moves are not dead ends, they are just illegal.
+     */
+    public boolean isDeadEnd(int player, int move) {
+        if (dead[player] || !isLegalMove(player, move)) {
+            return false;
+        }
+        int x = nextPlayerX(player, move);
+        int y = nextPlayerY(player, move);
+        int length = bodies[player].size() + nrExtensionsLeft[player];
+        if (!FreeSpaceAnalysis.splitsNeighbours(this, x, y)) {
+            return FreeSpaceAnalysis.isDeadEndByFill(this, x, y, length);
+        }
+        if (freeSpaceAnalysis == null || !freeSpaceAnalysis.isCurrent(freeSpaceStamp)) {
+            freeSpaceAnalysis = SearchArena.get().analyse(this);
+            freeSpaceStamp = freeSpaceAnalysis.getStamp();
+        }
+        return freeSpaceAnalysis.isDeadEnd(this, x, y, length);
     }
 
     public boolean isLegalMove(int player, int move) {
@@ -219,12 +458,17 @@ public class GameState {
 
     public void updatePlayerPosition(int player) {
         if (!dead[player]) {
-            int size = playerX[player].size();
+            SnakeBody body = bodies[player];
+            int size = body.size();
             lastPlayerOrientation[player] = playerOrientation[player];
+            stepCount++;
+            freeSpaceAnalysis = null;
+            positionKey ^= playerEndsKey(player);
+            markChanged(body.getX(size - 1), body.getY(size - 1));
             if (nrExtensionsLeft[player] == 0) {
-                occupied[playerX[player].get(size - 1)][playerY[player].get(size - 1)] = false;
-                playerX[player].remove(size - 1);
-                playerY[player].remove(size - 1);
+                setOccupied(body.getX(size - 1), body.getY(size - 1), false);
+                positionKey ^= segmentKey(player, body.getX(size - 1), body.getY(size - 1));
+                body.removeTail();
             }
             else {
                 nrExtensionsLeft[player]--;
@@ -233,23 +477,27 @@ public class GameState {
             int headY = nextPlayerY(player, playerOrientation[player]);
 
             if (isFree(headX, headY)) {
-                playerX[player].add(0, headX);
-                playerY[player].add(0, headY);
-                occupied[headX][headY] = true;
+                body.addHead(headX, headY);
+                setOccupied(headX, headY, true);
+                positionKey ^= segmentKey(player, headX, headY);
+                markChanged(headX, headY);
+                markChanged(body.getX(body.size() - 1), body.getY(body.size() - 1));
                 if (headX == targetX && headY == targetY) {
-                    targetX = -1;
-                    targetY = -1;
+                    setTarget(-1, -1);
                     nrExtensionsLeft[player] += extensionsPerTarget;
                 }
+                positionKey ^= playerEndsKey(player);
             }
             else {
                 dead[player] = true;
                 nrDead++;
-                for (int i = 0; i < playerX[player].size(); i++) {
-                    occupied[playerX[player].get(i)][playerY[player].get(i)] = false;
+                for (int i = 0; i < body.size(); i++) {
+                    setOccupied(body.getX(i), body.getY(i), false);
+                    positionKey ^= segmentKey(player, body.getX(i), body.getY(i));
+                    markChanged(body.getX(i), body.getY(i));
                 }
-                playerX[player] = new ArrayList();
-                playerY[player] = new ArrayList();
+                body.clear();
+                positionKey ^= featureKey(5, player, 0);
             }
         }
     }
@@ -0,0 +1,75 @@
+package snake;
+
+/**
+ * A batch of headless matches handed to a worker by the MatchCoordinator.
+ * Match i of the batch is played with seed + i. The seed fixes the targets and the moves of random players;
+ * the searches sample their chance nodes from generators seeded by the position. With a node limit per move
+ * the minimax players do not look at the clock either, and a batch is replayed exactly on any worker,
+ * except for nonparanoid-parallel, whose threads share their caches in no fixed order.
+ * With only a time limit, how deep the players search depends on the machine and its load.
+ * On the wire a batch is a single line:
+ *     BATCH id seed nrMatches boardSize moveTimeMs moveNodeLimit playerSpec...
+ */
+public class MatchBatch {
+
+    int id;
+    long seed;
+    int nrMatches;
+    int boardSize;
+    int moveTimeMs;
+    // Nodes the minimax players search per move instead of using the clock, 0 for none
+    long moveNodeLimit;
+    String[] playerSpecs;
+
+    public MatchBatch(int id, long seed, int nrMatches, int boardSize, int moveTimeMs, long moveNodeLimit, String[] playerSpecs) {
+        this.id = id;
+        this.seed = seed;
+        this.nrMatches = nrMatches;
+        this.boardSize = boardSize;
+        this.moveTimeMs = moveTimeMs;
+        this.moveNodeLimit = moveNodeLimit;
+        this.playerSpecs = playerSpecs;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String[] getPlayerSpecs() {
+        return playerSpecs;
+    }
+
+    public String toLine() {
+        StringBuilder line = new StringBuilder("BATCH " + id + " " + seed + " " + nrMatches + " " + boardSize + " " + moveTimeMs + " " + moveNodeLimit);
+        for (String spec : playerSpecs) {
+            line.append(' ').append(spec);
+        }
+        return line.toString();
+    }
+
+    public static MatchBatch parse(String line) throws Exception {
+        String[] parts = line.trim().split(" ");
+        if (parts.length < 9 || !parts[0].equals("BATCH")) {
+            throw new Exception("Malformed batch: " + line);
+        }
+        String[] playerSpecs = new String[parts.length - 7];
+        System.arraycopy(parts, 7, playerSpecs, 0, playerSpecs.length);
+        return new MatchBatch(Integer.parseInt(parts[1]), Long.parseLong(parts[2]), Integer.parseInt(parts[3]),
+                Integer.parseInt(parts[4]), Integer.parseInt(parts[5]), Long.parseLong(parts[6]), playerSpecs);
+    }
+
+    // Plays every match of the batch in this process
+    public MatchResult[] play() throws Exception {
+        MatchResult[] results = new MatchResult[nrMatches];
+        for (int i = 0; i < nrMatches; i++) {
+            Snake game = new Snake(playerSpecs, boardSize, seed + i, moveTimeMs, moveNodeLimit, null);
+            GameState state = game.getState();
+            int[] scores = new int[playerSpecs.length];
+            for (int j = 0; j < scores.length; j++) {
+                scores[j] = state.isDead(j) ? -1 : state.getSize(j);
+            }
+            results[i] = new MatchResult(id, i, game.getWinner(), scores);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,236 @@
+package snake;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out batches of headless matches to MatchWorker processes and collects their results.
+ * Workers connect over a local socket and are given one batch at a time, answering with one RESULT line per match.
+ * If a worker disconnects in the middle of a batch, the batch is handed to the next worker.
+ * A run fails once every local worker has exited and no worker is connected, rather than waiting for results forever.
+ *
+ * Usage: MatchCoordinator [-workers n] [-matches n] [-batch n] [-board size] [-time ms] [-nodes n] [-seed s] playerSpec...
+ * With -nodes, the minimax players search that many nodes per move instead of using the clock, so that every match
+ * can be replayed from its seed, see MatchBatch.
+ */
+public class MatchCoordinator {
+
+    private ServerSocket server;
+    private BlockingQueue<MatchBatch> pending = new LinkedBlockingQueue<>();
+    private Map<Integer, MatchResult[]> results = new HashMap<>();
+    private List<Process> localWorkers = new ArrayList<>();
+    // Guarded by results, so that run notices when the last worker disconnects
+    private int connectedWorkers = 0;
+    private volatile boolean running = true;
+
+    public MatchCoordinator(int port) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptWorkers, "match-coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    // Starts worker JVMs on this machine with the same class path and snake.* settings as the coordinator.
+    // The metrics port is not passed on, as the workers cannot all listen on it.
+    public void startLocalWorkers(int nrWorkers) throws IOException {
+        String java = System.getProperty("java.home") + "/bin/java";
+        for (int i = 0; i < nrWorkers; i++) {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            for (String name : System.getProperties().stringPropertyNames()) {
+                if (name.startsWith("snake.") && !name.equals("snake.metrics.port")) {
+                    command.add("-D" + name + "=" + System.getProperty(name));
+                }
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(MatchWorker.class.getName());
+            command.add("127.0.0.1");
+            command.add(Integer.toString(getPort()));
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.inheritIO();
+            localWorkers.add(builder.start());
+        }
+    }
+
+    // Plays all batches on the connected workers and returns the results ordered by batch and match
+    public List<MatchResult> run(List<MatchBatch> batches) throws InterruptedException {
+        synchronized (results) {
+            for (MatchBatch batch : batches) {
+                results.remove(batch.id);
+            }
+        }
+        pending.addAll(batches);
+        List<MatchResult> all = new ArrayList<>();
+        synchronized (results) {
+            for (MatchBatch batch : batches) {
+                while (!results.containsKey(batch.id)) {
+                    if (connectedWorkers == 0 && !localWorkers.isEmpty() && localWorkers.stream().noneMatch(Process::isAlive)) {
+                        throw new IllegalStateException("All workers have stopped with " + pending.size() + " batches left");
+                    }
+                    results.wait(1000);
+                }
+                for (MatchResult result : results.get(batch.id)) {
+                    all.add(result);
+                }
+            }
+        }
+        return all;
+    }
+
+    public void shutdown() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // Nothing left to do with the socket
+        }
+        for (Process worker : localWorkers) {
+            try {
+                if (!worker.waitFor(5, TimeUnit.SECONDS)) {
+                    worker.destroy();
+                }
+            } catch (InterruptedException e) {
+                worker.destroy();
+            }
+        }
+    }
+
+    private void acceptWorkers() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                Thread handler = new Thread(() -> serveWorker(socket), "match-worker-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Coordinator stopped accepting workers: " + e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    private void serveWorker(Socket socket) {
+        synchronized (results) {
+            connectedWorkers++;
+        }
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+             PrintWriter out = new PrintWriter(s.getOutputStream(), true)) {
+            while (running) {
+                MatchBatch batch = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    continue;
+                }
+                try {
+                    out.println(batch.toLine());
+                    MatchResult[] batchResults = new MatchResult[batch.nrMatches];
+                    for (int i = 0; i < batch.nrMatches; i++) {
+                        String line = in.readLine();
+                        if (line == null) {
+                            throw new IOException("Worker disconnected");
+                        }
+                        MatchResult result = MatchResult.parse(line);
+                        batchResults[result.match] = result;
+                    }
+                    synchronized (results) {
+                        results.put(batch.id, batchResults);
+                        results.notifyAll();
+                    }
+                } catch (Exception e) {
+                    pending.add(batch);
+                    throw e;
+                }
+            }
+            out.println("DONE");
+        } catch (Exception e) {
+            if (running) {
+                System.err.println("Lost worker: " + e.getMessage());
+            }
+        } finally {
+            synchronized (results) {
+                connectedWorkers--;
+                results.notifyAll();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nrWorkers = Runtime.getRuntime().availableProcessors();
+        int nrMatches = 100;
+        int batchSize = 10;
+        int boardSize = 20;
+        int moveTimeMs = 100;
+        long moveNodeLimit = 0;
+        long seed = 0;
+        List<String> playerSpecs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-workers": nrWorkers = Integer.parseInt(args[++i]); break;
+                case "-matches": nrMatches = Integer.parseInt(args[++i]); break;
+                case "-batch": batchSize = Integer.parseInt(args[++i]); break;
+                case "-board": boardSize = Integer.parseInt(args[++i]); break;
+                case "-time": moveTimeMs = Integer.parseInt(args[++i]); break;
+                case "-nodes": moveNodeLimit = Long.parseLong(args[++i]); break;
+                case "-seed": seed = Long.parseLong(args[++i]); break;
+                default: playerSpecs.add(args[i]);
+            }
+        }
+        if (playerSpecs.isEmpty()) {
+            playerSpecs.add("paranoid");
+            playerSpecs.add("nonparanoid");
+            playerSpecs.add("astar");
+            playerSpecs.add("random");
+        }
+        String[] specs = playerSpecs.toArray(new String[0]);
+
+        List<MatchBatch> batches = new ArrayList<>();
+        for (int played = 0; played < nrMatches; played += batchSize) {
+            batches.add(new MatchBatch(batches.size(), seed + played, Math.min(batchSize, nrMatches - played), boardSize, moveTimeMs, moveNodeLimit, specs));
+        }
+
+        MatchCoordinator coordinator = new MatchCoordinator(0);
+        coordinator.startLocalWorkers(nrWorkers);
+        long startTime = System.currentTimeMillis();
+        List<MatchResult> matchResults = coordinator.run(batches);
+        coordinator.shutdown();
+
+        int[] wins = new int[specs.length];
+        long[] totalScore = new long[specs.length];
+        int draws = 0;
+        for (MatchResult result : matchResults) {
+            if (result.winner < 0) {
+                draws++;
+            }
+            else {
+                wins[result.winner]++;
+            }
+            for (int i = 0; i < specs.length; i++) {
+                totalScore[i] += Math.max(0, result.scores[i]);
+            }
+        }
+        System.out.println(matchResults.size() + " matches in " + (System.currentTimeMillis() - startTime) + " ms, " + draws + " without winner");
+        for (int i = 0; i < specs.length; i++) {
+            System.out.println("player " + i + " (" + specs[i] + "): " + wins[i] + " wins, average length "
+                    + (double) totalScore[i] / matchResults.size());
+        }
+    }
+}
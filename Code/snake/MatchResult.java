@@ -0,0 +1,61 @@
+package snake;
+
+/**
+ * The outcome of one headless match: the winning player (-1 if everybody died) and the final length of
+ * every player (-1 for dead players). On the wire a result is a single line:
+ *     RESULT batchId match winner score,score,...
+ */
+public class MatchResult {
+
+    int batchId;
+    int match;
+    int winner;
+    int[] scores;
+
+    public MatchResult(int batchId, int match, int winner, int[] scores) {
+        this.batchId = batchId;
+        this.match = match;
+        this.winner = winner;
+        this.scores = scores;
+    }
+
+    public int getBatchId() {
+        return batchId;
+    }
+
+    public int getMatch() {
+        return match;
+    }
+
+    public int getWinner() {
+        return winner;
+    }
+
+    public int getScore(int player) {
+        return scores[player];
+    }
+
+    public String toLine() {
+        StringBuilder line = new StringBuilder("RESULT " + batchId + " " + match + " " + winner + " ");
+        for (int i = 0; i < scores.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(scores[i]);
+        }
+        return line.toString();
+    }
+
+    public static MatchResult parse(String line) throws Exception {
+        String[] parts = line.trim().split(" ");
+        if (parts.length != 5 || !parts[0].equals("RESULT")) {
+            throw new Exception("Malformed result: " + line);
+        }
+        String[] scoreParts = parts[4].split(",");
+        int[] scores = new int[scoreParts.length];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = Integer.parseInt(scoreParts[i]);
+        }
+        return new MatchResult(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), scores);
+    }
+}
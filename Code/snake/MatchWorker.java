@@ -0,0 +1,34 @@
+package snake;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.Socket;
+
+/**
+ * Plays batches of headless matches for a MatchCoordinator until it has no more work.
+ *
+ * Usage: MatchWorker host port
+ */
+public class MatchWorker {
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = Integer.parseInt(args[1]);
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+            String line;
+            while ((line = in.readLine()) != null && !line.equals("DONE")) {
+                MatchBatch batch = MatchBatch.parse(line);
+                for (MatchResult result : batch.play()) {
+                    out.println(result.toLine());
+                }
+            }
+        } catch (ConnectException e) {
+            // The coordinator has already finished, or was never started
+            System.err.println("No match coordinator at " + host + ":" + port);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package snake;
+
+import com.sun.net.httpserver.HttpServer;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the game loop and the searches.
+ * Metrics are off unless the JVM is started with -Dsnake.metrics=true or -Dsnake.metrics.port=<port>.
+ * Every recording call checks the ENABLED constant first, so when they are off the JIT removes them entirely.
+ * State copies are also counted while a JFR recording has the StateCopiesEvent enabled, as that event reports them.
+ * With a port, the metrics are served on http://127.0.0.1:<port>/metrics in the Prometheus text format.
+ */
+public final class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("snake.metrics") || System.getProperty("snake.metrics.port") != null;
+
+    private static final double[] LATENCY_BUCKETS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+    private static final double[] DEPTH_BUCKETS = {1, 2, 3, 4, 5, 6, 8, 10, 12, 16, 20, 30};
+
+    private static final LongAdder stateCopies = new LongAdder();
+    private static final EventType stateCopiesEvent = EventType.getEventType(SnakeEvents.StateCopiesEvent.class);
+    private static final LongAdder ticks = new LongAdder();
+    private static final Histogram tickLatency = new Histogram(LATENCY_BUCKETS_MS);
+    private static final Map<String, Histogram> moveLatency = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> searchDepth = new ConcurrentHashMap<>();
+
+    static {
+        FlightRecorder.addPeriodicEvent(SnakeEvents.StateCopiesEvent.class, () -> {
+            SnakeEvents.StateCopiesEvent event = new SnakeEvents.StateCopiesEvent();
+            event.copies = stateCopies.sum();
+            event.commit();
+        });
+        String port = System.getProperty("snake.metrics.port");
+        if (port != null) {
+            try {
+                startServer(Integer.parseInt(port));
+            } catch (IOException e) {
+                System.err.println("Could not start the metrics endpoint on port " + port + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    // Forgets what the JIT warm-up recorded, so the metrics only cover real games; see WarmUp
+    static void reset() {
+        stateCopies.reset();
+        moveLatency.clear();
+        searchDepth.clear();
+    }
+
+    public static void countStateCopy() {
+        if (ENABLED || stateCopiesEvent.isEnabled()) {
+            stateCopies.increment();
+        }
+    }
+
+    public static void recordTick(long nanos) {
+        if (ENABLED) {
+            ticks.increment();
+            tickLatency.record(nanos / 1e6);
+        }
+    }
+
+    public static void recordMove(int player, String kind, long nanos) {
+        if (ENABLED) {
+            moveLatency.computeIfAbsent(labels(player, kind), k -> new Histogram(LATENCY_BUCKETS_MS)).record(nanos / 1e6);
+        }
+    }
+
+    public static void recordSearchDepth(int player, String kind, int depth) {
+        SnakeEvents.SearchEvent event = new SnakeEvents.SearchEvent();
+        if (event.shouldCommit()) {
+            event.player = player;
+            event.depth = depth;
+            event.commit();
+        }
+        if (ENABLED) {
+            searchDepth.computeIfAbsent(labels(player, kind), k -> new Histogram(DEPTH_BUCKETS)).record(depth);
+        }
+    }
+
+    private static String labels(int player, String kind) {
+        return "player=\"" + player + "\",kind=\"" + kind + "\"";
+    }
+
+    static String scrape() {
+        StringBuilder out = new StringBuilder();
+        out.append("# TYPE snake_state_copies_total counter\n");
+        out.append("snake_state_copies_total ").append(stateCopies.sum()).append('\n');
+        out.append("# TYPE snake_ticks_total counter\n");
+        out.append("snake_ticks_total ").append(ticks.sum()).append('\n');
+        out.append("# TYPE snake_tick_duration_ms histogram\n");
+        tickLatency.write(out, "snake_tick_duration_ms", "");
+        out.append("# TYPE snake_move_duration_ms histogram\n");
+        for (Map.Entry<String, Histogram> entry : moveLatency.entrySet()) {
+            entry.getValue().write(out, "snake_move_duration_ms", entry.getKey());
+        }
+        out.append("# TYPE snake_search_depth histogram\n");
+        for (Map.Entry<String, Histogram> entry : searchDepth.entrySet()) {
+            entry.getValue().write(out, "snake_search_depth", entry.getKey());
+        }
+        return out.toString();
+    }
+
+    private static void startServer(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(null);
+        server.start();
+        System.out.println("Serving metrics on http://127.0.0.1:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    // Cumulative histogram with fixed upper bounds, as Prometheus expects
+    private static class Histogram {
+        private final double[] bounds;
+        private final LongAdder[] counts;
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(double[] bounds) {
+            this.bounds = bounds;
+            counts = new LongAdder[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void record(double value) {
+            for (int i = 0; i < bounds.length; i++) {
+                if (value <= bounds[i]) {
+                    counts[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(value);
+        }
+
+        void write(StringBuilder out, String name, String labels) {
+            String separator = labels.isEmpty() ? "" : ",";
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += counts[i].sum();
+                out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"").append(bounds[i]).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"+Inf\"} ").append(count.sum()).append('\n');
+            String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+            out.append(name).append("_sum").append(braces).append(' ').append(sum.sum()).append('\n');
+            out.append(name).append("_count").append(braces).append(' ').append(count.sum()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package snake;
+
+import java.util.Random;
+
+/**
+ * Scratch memory for the searches of one thread, reused from node to node instead of allocated for every node:
+ *     the queues, stacks and distance planes that a search over the cells of the board needs while it runs,
+ *     one FreeSpaceAnalysis and one TargetDistanceField per ply of the game tree, see analyse and getTargetDistances,
+ *     a random generator for the targets sampled at chance nodes, see getRandom.
+ * Buffers grow to the largest board seen and are never shrunk. A buffer is only valid until the next call
+ * that hands out the same buffer, so a caller may not keep it past its own search.
+ *
+ * Every thread has its own arena, see get; an arena must not be handed to another thread.
+ */
+public final class SearchArena {
+
+    // States whose number of moves differs by a multiple of this share a free space analysis and a target distance field
+    private static final int NR_PLIES = 64;
+    private static final ThreadLocal<SearchArena> ARENAS = ThreadLocal.withInitial(SearchArena::new);
+
+    private int[] queue = new int[0];
+    // All false between uses
+    private boolean[] queued = new boolean[0];
+    private int[] stack = new int[0];
+    // All zero between uses
+    private int[] nextDirection = new int[0];
+    private int[][] distances = new int[0][];
+    private final FreeSpaceAnalysis[] analyses = new FreeSpaceAnalysis[NR_PLIES];
+    private final TargetDistanceField[] targetDistances = new TargetDistanceField[NR_PLIES];
+    private final Random random = new Random();
+
+    private SearchArena() {
+    }
+
+    public static SearchArena get() {
+        return ARENAS.get();
+    }
+
+    // A queue for at least size cells, with undefined contents
+    public int[] getQueue(int size) {
+        if (queue.length < size) {
+            queue = new int[size];
+        }
+        return queue;
+    }
+
+    // Flags for at least size cells, all false; the caller has to clear the ones it sets before it is done
+    boolean[] getQueued(int size) {
+        if (queued.length < size) {
+            queued = new boolean[size];
+        }
+        return queued;
+    }
+
+    int[] getStack(int size) {
+        if (stack.length < size) {
+            stack = new int[size];
+        }
+        return stack;
+    }
+
+    // Counters for at least size cells, all zero; the caller has to reset the ones it raises before it is done
+    int[] getNextDirection(int size) {
+        if (nextDirection.length < size) {
+            nextDirection = new int[size];
+        }
+        return nextDirection;
+    }
+
+    // One plane of distances for each of the players, each for at least size cells, with undefined contents
+    public int[][] getDistances(int nrPlayers, int size) {
+        if (distances.length != nrPlayers || (nrPlayers > 0 && distances[0].length < size)) {
+            distances = new int[nrPlayers][size];
+        }
+        return distances;
+    }
+
+    /*
+     * The random generator of the arena, seeded with the given seed. Seeding it from the position makes the samples
+     * of a search independent of the thread, of the order of the search and of the targets of the game.
+     */
+    public Random getRandom(long seed) {
+        random.setSeed(seed);
+        return random;
+    }
+
+    /*
+     * Analyses the free space of the state. The states of one ply of a search share an analysis, so the analysis
+     * of a state stays intact while the search is below it, and is redone if the state needs it again after
+     * the search moved on to another state of its ply; the stamp of the analysis tells the state which is the case.
+     */
+    FreeSpaceAnalysis analyse(GameState state) {
+        int ply = state.stepCount % NR_PLIES;
+        FreeSpaceAnalysis analysis = analyses[ply];
+        if (analysis == null || !analysis.fits(state)) {
+            analysis = new FreeSpaceAnalysis(this, state.width, state.height);
+            analyses[ply] = analysis;
+        }
+        analysis.analyse(state);
+        return analysis;
+    }
+
+    /*
+     * Computes the target distances of the state in the field of its ply, in the same way as analyse:
+     * repaired from base, the field of an earlier state, if given, where only the listed cells may have changed,
+     * otherwise from scratch.
+     */
+    TargetDistanceField getTargetDistances(GameState state, TargetDistanceField base, int[] changedCells, int nrChangedCells) {
+        int ply = state.stepCount % NR_PLIES;
+        TargetDistanceField field = targetDistances[ply];
+        if (field == null || !field.fits(state)) {
+            field = new TargetDistanceField(this, state.width, state.height);
+            targetDistances[ply] = field;
+        }
+        if (base == null) {
+            field.rebuild(state);
+        }
+        else {
+            field.repair(base, state, changedCells, nrChangedCells);
+        }
+        return field;
+    }
+}
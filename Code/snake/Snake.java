@@ -2,6 +2,8 @@ package snake;
 
 import players.*;
 
+import java.util.List;
+
 /**
  *
  * @author steven
@@ -13,14 +15,42 @@ public class Snake {
     GameDisplay display;
     boolean showGUI = true;
     int nrPlayers = 4;
-    int maxNrSteps = 500;
+    // The game ends after this many moves, if the snakes have not all died before
+    public static final int MAX_NR_STEPS = 500;
     static int availableTime = 100;
+    long nextTickNanos;
+    List<GameState> history;
 
     public Snake() throws Exception {
         startGUIGame();
     }
 
+    /*
+     * Plays a complete game without display and without waiting between moves, for self-play and tournaments.
+     * Players are given as specifications, see createPlayer.
+     */
+    public Snake(String[] playerSpecs, int boardSize, long seed, int moveTimeMs) throws Exception {
+        this(playerSpecs, boardSize, seed, moveTimeMs, 0, null);
+    }
+
+    /*
+     * Plays a headless game and adds a copy of the state after every move to history, e.g. to learn from the game afterwards.
+     */
+    public Snake(String[] playerSpecs, int boardSize, long seed, int moveTimeMs, List<GameState> history) throws Exception {
+        this(playerSpecs, boardSize, seed, moveTimeMs, 0, history);
+    }
+
+    /*
+     * Plays a headless game in which the minimax players search moveNodeLimit nodes per move instead of using the clock, if it is positive.
+     * Such a game only depends on the seed, and is played the same way on every machine.
+     */
+    public Snake(String[] playerSpecs, int boardSize, long seed, int moveTimeMs, long moveNodeLimit, List<GameState> history) throws Exception {
+        this.history = history;
+        startHeadlessGame(playerSpecs, boardSize, seed, moveTimeMs, moveNodeLimit);
+    }
+
     public void startGUIGame() throws Exception {
+        WarmUp.run(new String[]{"paranoid", "nonparanoid", "astar", "random"}, 20, 20);
         state = new GameState(nrPlayers, 20, 20);
         showGUI = true;
         display = new GameDisplay(state);
@@ -35,7 +65,120 @@ public class Snake {
             players[i].setDisplay(display);
         }
 
-        doMove(0, 0);
+        nextTickNanos = System.nanoTime();
+        try {
+            doMove(0, 0);
+        } finally {
+            releasePlayers(players);
+        }
+    }
+
+    public void startHeadlessGame(String[] playerSpecs, int boardSize, long seed, int moveTimeMs, long moveNodeLimit) throws Exception {
+        // Before seeding, as the synthetic games draw from the same random generators
+        WarmUp.run(playerSpecs, boardSize, boardSize);
+        GameState.setRandomSeed(seed);
+        RandomPlayer.setRandomSeed(seed);
+        nrPlayers = playerSpecs.length;
+        state = new GameState(nrPlayers, boardSize, boardSize);
+        showGUI = false;
+
+        players = new SnakePlayer[nrPlayers];
+        for (int i = 0; i < nrPlayers; i++) {
+            players[i] = createPlayer(playerSpecs[i], state, i, this, moveTimeMs);
+            if (moveNodeLimit > 0 && players[i] instanceof BaseMinimaxPlayer) {
+                ((BaseMinimaxPlayer) players[i]).setNodeLimit(moveNodeLimit);
+            }
+        }
+
+        try {
+            doMove(0, 0);
+        } finally {
+            releasePlayers(players);
+        }
+    }
+
+    // Stops the worker threads of the parallel players, so that a process playing many games does not collect them
+    static void releasePlayers(SnakePlayer[] players) {
+        if (players == null) {
+            return;
+        }
+        for (SnakePlayer player : players) {
+            if (player instanceof NonParanoidPlayer) {
+                ((NonParanoidPlayer) player).setParallelism(1);
+            }
+        }
+    }
+
+    /*
+     * Creates a player from a specification of the form kind[:parameter,parameter,...],
+     * where kind is one of paranoid, nonparanoid, nonparanoid-shallow, nonparanoid-brs, nonparanoid-parallel, astar, random or human.
+     * The parameters of the minimax players are the weights of their evaluation, see LinearEvaluation.
+     */
+    public static SnakePlayer createPlayer(String spec, GameState state, int index, Snake game, int moveTimeMs) throws Exception {
+        String[] parts = spec.split(":");
+        String kind = parts[0];
+        if (kind.equals("paranoid") || kind.startsWith("nonparanoid")) {
+            BaseMinimaxPlayer player;
+            if (kind.equals("paranoid")) {
+                player = new ParanoidPlayer(state, index, game, moveTimeMs);
+            }
+            else if (kind.equals("nonparanoid-shallow")) {
+                player = new NonParanoidPlayer(state, index, game, moveTimeMs, NonParanoidPlayer.SearchMode.SHALLOW_PRUNING);
+            }
+            else if (kind.equals("nonparanoid-brs")) {
+                player = new NonParanoidPlayer(state, index, game, moveTimeMs, NonParanoidPlayer.SearchMode.BEST_REPLY);
+            }
+            else if (kind.equals("nonparanoid")) {
+                player = new NonParanoidPlayer(state, index, game, moveTimeMs);
+            }
+            else if (kind.equals("nonparanoid-parallel")) {
+                NonParanoidPlayer nonParanoidPlayer = new NonParanoidPlayer(state, index, game, moveTimeMs);
+                nonParanoidPlayer.setParallelism(Runtime.getRuntime().availableProcessors());
+                player = nonParanoidPlayer;
+            }
+            else {
+                throw new Exception("Unknown player " + spec);
+            }
+            if (parts.length > 1) {
+                player.setEvaluation(LinearEvaluation.parse(parts[1]));
+            }
+            return player;
+        }
+        else if (kind.equals("astar")) {
+            return new AStarPlayer(state, index, game);
+        }
+        else if (kind.equals("random")) {
+            return new RandomPlayer(state, index, game);
+        }
+        else if (kind.equals("human")) {
+            return new HumanPlayer(state, index, game);
+        }
+        throw new Exception("Unknown player " + spec);
+    }
+
+    // The player that makes the first move of a game: doMove(0, 0) hands the move to the player after player 0
+    public static int getFirstMover(int nrPlayers) {
+        return 1 % nrPlayers;
+    }
+
+    public GameState getState() {
+        return state;
+    }
+
+    // Returns the longest living player, or -1 if every player is dead
+    public int getWinner() {
+        int winner = -1;
+        int winningScore = -1;
+        for (int i = 0; i < nrPlayers; i++) {
+            if (!state.isDead(i)) {
+                int score = state.getSize(i);
+                if (score > winningScore) {
+                    winningScore = score;
+                    winner = i;
+                }
+            }
+        }
+        return winner;
     }
 
     public void doMove(int playerIndex, int currentStep) throws InterruptedException {
@@ -44,39 +187,69 @@ public class Snake {
         if (showGUI) {
             display.updateState();
         }
-        if (!state.isGameOver() && currentStep < maxNrSteps) {
+        if (!state.isGameOver() && currentStep < MAX_NR_STEPS) {
             while (state.isDead(nextIndex)) {
                 nextIndex = (nextIndex + 1) % nrPlayers;
             }
-            long startTime = System.currentTimeMillis();
+            SnakeEvents.TickEvent tickEvent = new SnakeEvents.TickEvent();
+            tickEvent.begin();
+            long tickStart = System.nanoTime();
+
+            SnakeEvents.PlayerMoveEvent moveEvent = new SnakeEvents.PlayerMoveEvent();
+            moveEvent.begin();
             players[nextIndex].doMove();
+            moveEvent.end();
+            long moveNanos = System.nanoTime() - tickStart;
+            if (moveEvent.shouldCommit()) {
+                moveEvent.player = nextIndex;
+                moveEvent.kind = players[nextIndex].getClass().getSimpleName();
+                moveEvent.commit();
+            }
+            Metrics.recordMove(nextIndex, players[nextIndex].getClass().getSimpleName(), moveNanos);
+
             state.updatePlayerPosition(nextIndex);
             if (!state.hasTarget()) {
                 state.chooseNextTarget();
             }
-            long stopTime = System.currentTimeMillis();
-            if (stopTime - startTime <= availableTime) {
-                Thread.sleep(availableTime - stopTime + startTime);
+            if (history != null) {
+                history.add(new GameState(state));
+            }
+
+            tickEvent.end();
+            if (tickEvent.shouldCommit()) {
+                tickEvent.step = currentStep;
+                tickEvent.player = nextIndex;
+                tickEvent.commit();
+            }
+            Metrics.recordTick(System.nanoTime() - tickStart);
+            if (showGUI) {
+                waitForNextTick();
             }
             doMove(nextIndex, currentStep + 1);
         }
         else if (showGUI) {
             java.awt.Toolkit.getDefaultToolkit().beep();
-            int winner = -1;
-            int winningScore = -1;
-            for (int i = 0; i < nrPlayers; i++) {
-                if (!state.isDead(i)) {
-                    int score = state.getSize(i);
-                    if (score > winningScore) {
-                        winningScore = score;
-                        winner = i;
-                    }
-                }
-            }
+            int winner = getWinner();
+            int winningScore = winner >= 0 ? state.getSize(winner) : -1;
             System.out.println("The winner is player " + winner + " (score: " + winningScore + ")" );
         }
     }
 
+    /*
+     * Sleeps until the next tick. Ticks are deadlines spaced availableTime apart on the System.nanoTime clock,
+     * so the time taken by moves and by oversleeping does not add up over the game.
+     * If a move overran its tick, the schedule restarts from now rather than rushing through the missed ticks.
+     */
+    private void waitForNextTick() throws InterruptedException {
+        nextTickNanos += availableTime * 1000000L;
+        long waitNanos = nextTickNanos - System.nanoTime();
+        if (waitNanos <= 0) {
+            nextTickNanos = System.nanoTime();
+            return;
+        }
+        Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+    }
+
     public static void main(String[] args) throws Exception {
         new Snake();
     }
@@ -0,0 +1,108 @@
+package snake;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The cells of one snake, from tail to head, as a window on an append-only array that forked states share.
+ * A snake only ever grows at its head and shrinks at its tail, so:
+ *     forking a body copies the two ends of the window, not the cells,
+ *     moving the tail just moves the start of the window,
+ *     a new head is written right after the window. The first body to claim that slot of the shared array writes
+ *     in place; any other body forked from the same state finds it taken and copies its window to a new array first.
+ * Cells inside a window are never overwritten, so every body sees its own cells however the others move.
+ */
+final class SnakeBody {
+
+    private static final int MINIMUM_CAPACITY = 16;
+
+    private static final class Cells {
+        final int[] cells;
+        // Number of slots written so far; a body may only append at its end if it is the one to raise this
+        final AtomicInteger claimed;
+
+        Cells(int[] cells, int claimed) {
+            this.cells = cells;
+            this.claimed = new AtomicInteger(claimed);
+        }
+    }
+
+    private Cells shared;
+    private int start;
+    private int end;
+
+    SnakeBody() {
+        shared = new Cells(new int[MINIMUM_CAPACITY], 0);
+    }
+
+    // A body with the same cells, sharing them with the original
+    SnakeBody(SnakeBody body) {
+        shared = body.shared;
+        start = body.start;
+        end = body.end;
+    }
+
+    int size() {
+        return end - start;
+    }
+
+    boolean isEmpty() {
+        return end == start;
+    }
+
+    // Coordinates of the segment at the given index, counted from the head
+    int getX(int index) {
+        return shared.cells[end - 1 - index] >> 16;
+    }
+
+    int getY(int index) {
+        return shared.cells[end - 1 - index] & 0xffff;
+    }
+
+    void addHead(int x, int y) {
+        int[] cells = shared.cells;
+        if (end == cells.length || !shared.claimed.compareAndSet(end, end + 1)) {
+            int size = size();
+            int[] copy = new int[Math.max(MINIMUM_CAPACITY, 2 * (size + 1))];
+            System.arraycopy(cells, start, copy, 0, size);
+            shared = new Cells(copy, size + 1);
+            start = 0;
+            end = size;
+        }
+        shared.cells[end++] = (x << 16) | y;
+    }
+
+    void removeTail() {
+        start++;
+    }
+
+    void clear() {
+        start = end;
+    }
+
+    // Read-only views of the coordinates from head to tail
+    List<Integer> xView() {
+        return new AbstractList<Integer>() {
+            public Integer get(int index) {
+                return getX(index);
+            }
+
+            public int size() {
+                return SnakeBody.this.size();
+            }
+        };
+    }
+
+    List<Integer> yView() {
+        return new AbstractList<Integer>() {
+            public Integer get(int index) {
+                return getY(index);
+            }
+
+            public int size() {
+                return SnakeBody.this.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,54 @@
+package snake;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+
+/**
+ * Custom JDK Flight Recorder events for the game loop and the searches.
+ * They cost next to nothing while no recording is running, so they are always emitted.
+ */
+public class SnakeEvents {
+
+    @Name("snake.Tick")
+    @Label("Game Tick")
+    @Category("Snake")
+    public static class TickEvent extends Event {
+        @Label("Step")
+        public int step;
+        @Label("Player")
+        public int player;
+    }
+
+    @Name("snake.PlayerMove")
+    @Label("Player Move")
+    @Category("Snake")
+    public static class PlayerMoveEvent extends Event {
+        @Label("Player")
+        public int player;
+        @Label("Player Kind")
+        public String kind;
+    }
+
+    @Name("snake.Search")
+    @Label("Iterative Deepening Search")
+    @Category("Snake")
+    public static class SearchEvent extends Event {
+        @Label("Player")
+        public int player;
+        @Label("Depth Reached")
+        public int depth;
+    }
+
+    // Only counts while metrics are enabled, see Metrics
+    @Name("snake.StateCopies")
+    @Label("Game State Copies")
+    @Category("Snake")
+    @Period("1 s")
+    public static class StateCopiesEvent extends Event {
+        @Label("Copies Since Start")
+        public long copies;
+    }
+}
@@ -0,0 +1,235 @@
+package snake;
+
+/**
+ * Breadth-first distances from the target outwards to every free cell of the board.
+ * A field is built once per target and is then shared between a game state and the states forked from it.
+ * When snakes move, only the cells that changed are repaired; a full rebuild is done only when a newly
+ * blocked cell was the sole shortest path for one of its neighbours.
+ *
+ * Occupancy is time-aware in the same spirit as AStarPlayer.isOccupied: the last segment of a snake that
+ * has no extensions left is vacated on that snake's next move, so it is not treated as an obstacle.
+ *
+ * Like FreeSpaceAnalysis, fields are not allocated per state but taken from the SearchArena of the thread, one per ply,
+ * and rebuilt or repaired for another state later; the stamp tells a state whether the field it holds is still its own.
+ */
+class TargetDistanceField {
+
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+    private static final int[] DX = {1, -1, 0, 0};
+    private static final int[] DY = {0, 0, 1, -1};
+
+    private final SearchArena arena;
+    final int width;
+    final int height;
+    int targetX;
+    int targetY;
+    final boolean[] blocked;
+    final int[] distance;
+    // Raised by every rebuild and repair, so the states that held the field before can tell it is no longer theirs
+    private int stamp;
+
+    TargetDistanceField(SearchArena arena, int width, int height) {
+        this.arena = arena;
+        this.width = width;
+        this.height = height;
+        blocked = new boolean[width * height];
+        distance = new int[width * height];
+    }
+
+    boolean fits(GameState state) {
+        return width == state.width && height == state.height;
+    }
+
+    // Whether this is still the field made when stamp was handed out, on the thread that asks
+    boolean isCurrent(int stamp) {
+        return arena == SearchArena.get() && this.stamp == stamp;
+    }
+
+    int getStamp() {
+        return stamp;
+    }
+
+    // Computes the distances of the state from scratch
+    void rebuild(GameState state) {
+        stamp++;
+        targetX = state.targetX;
+        targetY = state.targetY;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                blocked[x + y * width] = isBlocked(state, x, y);
+            }
+        }
+        build();
+    }
+
+    boolean hasSameTarget(GameState state) {
+        return targetX == state.targetX && targetY == state.targetY && width == state.width && height == state.height;
+    }
+
+    /*
+     * Number of steps needed to move a head at (x, y) onto the target.
+     * The head itself is occupied, so the distance is taken from its best free neighbour.
+     */
+    int getDistance(int x, int y) {
+        int best = UNREACHABLE;
+        best = Math.min(best, distanceAt(x + 1, y));
+        best = Math.min(best, distanceAt(x - 1, y));
+        best = Math.min(best, distanceAt(x, y + 1));
+        best = Math.min(best, distanceAt(x, y - 1));
+        return best == UNREACHABLE ? UNREACHABLE : best + 1;
+    }
+
+    /*
+     * Makes this field consistent with the given state, starting from a copy of the field of an earlier state,
+     * where only the listed cells may have changed since that field was built. The earlier field is left untouched
+     * (unless it is this one) because it is shared with the other states forked from the same parent.
+     */
+    void repair(TargetDistanceField base, GameState state, int[] changedCells, int nrChangedCells) {
+        stamp++;
+        if (base != this) {
+            targetX = base.targetX;
+            targetY = base.targetY;
+            System.arraycopy(base.blocked, 0, blocked, 0, blocked.length);
+            System.arraycopy(base.distance, 0, distance, 0, distance.length);
+        }
+        // The freed cells are collected at the front of the queue that later relaxes from them
+        int[] queue = arena.getQueue(width * height);
+        int nrFreed = 0;
+        boolean newlyBlocked = false;
+        for (int i = 0; i < nrChangedCells; i++) {
+            int cell = changedCells[i];
+            boolean nowBlocked = isBlocked(state, cell % width, cell / width);
+            if (nowBlocked && !blocked[cell]) {
+                blocked[cell] = true;
+                newlyBlocked = true;
+            }
+            else if (!nowBlocked && blocked[cell]) {
+                blocked[cell] = false;
+                queue[nrFreed++] = cell;
+            }
+        }
+
+        // Blocking a cell can only make distances longer. As long as every neighbour that relied on a
+        // blocked cell still has another way down, no distance changes apart from the blocked cells themselves.
+        if (newlyBlocked) {
+            for (int i = 0; i < nrChangedCells; i++) {
+                int cell = changedCells[i];
+                if (blocked[cell] && distance[cell] != UNREACHABLE) {
+                    int level = distance[cell];
+                    distance[cell] = UNREACHABLE;
+                    if (!hasSupportedNeighbours(cell, level)) {
+                        build();
+                        return;
+                    }
+                }
+            }
+        }
+
+        // Freeing a cell can only make distances shorter, which a relaxation from the freed cells handles exactly.
+        if (nrFreed > 0) {
+            int nrQueued = 0;
+            for (int i = 0; i < nrFreed; i++) {
+                int cell = queue[i];
+                int x = cell % width;
+                int y = cell / width;
+                int best = Math.min(Math.min(distanceAt(x + 1, y), distanceAt(x - 1, y)),
+                        Math.min(distanceAt(x, y + 1), distanceAt(x, y - 1)));
+                if (best != UNREACHABLE) {
+                    distance[cell] = best + 1;
+                    queue[nrQueued++] = cell;
+                }
+            }
+            propagate(queue, nrQueued);
+        }
+    }
+
+    private void build() {
+        java.util.Arrays.fill(distance, UNREACHABLE);
+        if (targetX < 0 || targetY < 0) {
+            return;
+        }
+        int[] queue = SearchArena.get().getQueue(width * height);
+        queue[0] = targetX + targetY * width;
+        distance[queue[0]] = 0;
+        propagate(queue, 1);
+    }
+
+    /*
+     * Lowers distances outwards from the first nrQueued cells of the queue until nothing changes.
+     * A cell is never in the queue twice at the same time, so the queue is a ring buffer the size of the board.
+     */
+    private void propagate(int[] queue, int nrQueued) {
+        boolean[] queued = SearchArena.get().getQueued(queue.length);
+        for (int i = 0; i < nrQueued; i++) {
+            queued[queue[i]] = true;
+        }
+        int head = 0;
+        int tail = nrQueued % queue.length;
+        while (nrQueued > 0) {
+            int cell = queue[head];
+            head = (head + 1) % queue.length;
+            nrQueued--;
+            queued[cell] = false;
+            int x = cell % width;
+            int y = cell / width;
+            int next = distance[cell] + 1;
+            for (int direction = 0; direction < 4; direction++) {
+                int neighbourX = x + DX[direction];
+                int neighbourY = y + DY[direction];
+                if (neighbourX < 0 || neighbourX >= width || neighbourY < 0 || neighbourY >= height) {
+                    continue;
+                }
+                int neighbour = neighbourX + neighbourY * width;
+                if (!blocked[neighbour] && distance[neighbour] > next) {
+                    distance[neighbour] = next;
+                    if (!queued[neighbour]) {
+                        queued[neighbour] = true;
+                        queue[tail] = neighbour;
+                        tail = (tail + 1) % queue.length;
+                        nrQueued++;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Checks that every free neighbour one step further from the target than the blocked cell
+     * can still reach the target through another free cell at the blocked cell's distance.
+     */
+    private boolean hasSupportedNeighbours(int cell, int level) {
+        int x = cell % width;
+        int y = cell / width;
+        return isSupported(x + 1, y, level + 1) && isSupported(x - 1, y, level + 1)
+                && isSupported(x, y + 1, level + 1) && isSupported(x, y - 1, level + 1);
+    }
+
+    private boolean isSupported(int x, int y, int level) {
+        if (x < 0 || x >= width || y < 0 || y >= height || blocked[x + y * width] || distance[x + y * width] != level) {
+            return true;
+        }
+        return distanceAt(x + 1, y) == level - 1 || distanceAt(x - 1, y) == level - 1
+                || distanceAt(x, y + 1) == level - 1 || distanceAt(x, y - 1) == level - 1;
+    }
+
+    private int distanceAt(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height || blocked[x + y * width]) {
+            return UNREACHABLE;
+        }
+        return distance[x + y * width];
+    }
+
+    static boolean isBlocked(GameState state, int x, int y) {
+        if (!state.isOccupied(x, y)) {
+            return false;
+        }
+        for (int i = 0; i < state.nrPlayers; i++) {
+            int size = state.getSize(i);
+            if (!state.dead[i] && state.nrExtensionsLeft[i] == 0 && size > 1
+                    && state.getSegmentX(i, size - 1) == x && state.getSegmentY(i, size - 1) == y) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
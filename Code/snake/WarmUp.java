@@ -0,0 +1,107 @@
+package snake;
+
+import players.BaseMinimaxPlayer;
+import players.SnakePlayer;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Plays synthetic games before the first real one, so that the search, the evaluation and the path finding have
+ * been compiled by the JIT by the time they count. Without it the first moves of a game run mostly interpreted
+ * and search much less deep than the moves later on.
+ *
+ * The synthetic games are played by the same kinds of players as the real game, with a short time per move,
+ * until the JIT has gone quiet: it spent less than QUIET_FRACTION of the last CHECK_INTERVAL_MS compiling.
+ * -Dsnake.warmup=<ms> caps the warm-up (default DEFAULT_MAX_MS), 0 turns it off. If the JVM cannot tell how long
+ * it spent compiling, the warm-up always runs up to the cap.
+ *
+ * The warm-up runs once per JVM, so a worker that plays many matches only pays for it before the first one.
+ */
+final class WarmUp {
+
+    private static final int DEFAULT_MAX_MS = 3000;
+    private static final int MOVE_TIME_MS = 10;
+    private static final int CHECK_INTERVAL_MS = 250;
+    private static final double QUIET_FRACTION = 0.05;
+    // A synthetic game is started over after this many moves, so the early game is warmed up as well
+    private static final int MAX_GAME_MOVES = 200;
+    private static boolean done = false;
+
+    private WarmUp() {
+    }
+
+    static synchronized void run(String[] playerSpecs, int width, int height) throws Exception {
+        if (done) {
+            return;
+        }
+        done = true;
+        int maxMs = Integer.getInteger("snake.warmup", DEFAULT_MAX_MS);
+        if (maxMs <= 0) {
+            return;
+        }
+        CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+        boolean monitored = compiler != null && compiler.isCompilationTimeMonitoringSupported();
+
+        long start = System.nanoTime();
+        long checkStart = start;
+        long compileStart = monitored ? compiler.getTotalCompilationTime() : 0;
+        long compileMs = 0;
+        int nrMoves = 0;
+        GameState state = null;
+        SnakePlayer[] players = null;
+        int gameMoves = 0;
+        while (true) {
+            if (state == null || state.isGameOver() || gameMoves >= MAX_GAME_MOVES) {
+                Snake.releasePlayers(players);
+                state = new GameState(playerSpecs.length, width, height);
+                players = createPlayers(playerSpecs, state);
+                gameMoves = 0;
+            }
+            for (int i = 0; i < players.length && !state.isGameOver(); i++) {
+                if (state.isDead(i)) {
+                    continue;
+                }
+                players[i].doMove();
+                state.updatePlayerPosition(i);
+                if (!state.hasTarget()) {
+                    state.chooseNextTarget();
+                }
+                nrMoves++;
+                gameMoves++;
+            }
+
+            long now = System.nanoTime();
+            if ((now - start) / 1000000 >= maxMs) {
+                break;
+            }
+            if ((now - checkStart) / 1000000 >= CHECK_INTERVAL_MS && monitored) {
+                long compiled = compiler.getTotalCompilationTime();
+                compileMs += compiled - compileStart;
+                boolean quiet = compiled - compileStart < QUIET_FRACTION * (now - checkStart) / 1000000;
+                checkStart = now;
+                compileStart = compiled;
+                if (quiet) {
+                    break;
+                }
+            }
+        }
+        Snake.releasePlayers(players);
+        Metrics.reset();
+        System.out.println("Warm-up took " + (System.nanoTime() - start) / 1000000 + " ms: " + nrMoves + " moves"
+                + (monitored ? ", " + compileMs + " ms compiling" : ""));
+    }
+
+    // The players of the real game; a human is replaced by a random player, as there is nobody to ask for moves yet
+    private static SnakePlayer[] createPlayers(String[] playerSpecs, GameState state) throws Exception {
+        SnakePlayer[] players = new SnakePlayer[playerSpecs.length];
+        for (int i = 0; i < playerSpecs.length; i++) {
+            String spec = playerSpecs[i].startsWith("human") ? "random" : playerSpecs[i];
+            players[i] = Snake.createPlayer(spec, state, i, null, MOVE_TIME_MS);
+            if (players[i] instanceof BaseMinimaxPlayer) {
+                ((BaseMinimaxPlayer) players[i]).setUseOpeningBook(false);
+            }
+        }
+        return players;
+    }
+}
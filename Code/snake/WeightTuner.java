@@ -0,0 +1,264 @@
+package snake;
+
+import players.LinearEvaluation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Tunes the evaluation weights of a minimax player with SPSA over self-play.
+ * Every iteration perturbs all weights at once in a random direction and plays the two perturbed players against each other
+ * on the same seeds, once in each seat, with the remaining seats filled by fixed opponents (none or two). The score difference
+ * of each pair of games is an estimate of the gradient along the perturbation.
+ * The players search a fixed number of nodes per move, so that a seed gives the same targets and the same opponent moves
+ * in both games of a pair, and only the weights differ. With -nodes 0 they use the clock and the pairs are looser.
+ * Progress is checkpointed after every iteration so an interrupted run can be resumed. Every few iterations the tuned weights
+ * are played against the starting weights, and the run stops as soon as a paired t-test shows they are significantly better.
+ * As the test is repeated up to nrIterations / checkEvery times, its level is split over all those looks (Bonferroni),
+ * which keeps the chance of stopping on weights that are no better below SIGNIFICANCE for the whole run.
+ *
+ * Usage: WeightTuner [-kind paranoid|nonparanoid] [-workers n] [-iterations n] [-pairs n] [-time ms] [-nodes n] [-board size]
+ *                    [-checkpoint file] [-seed s] [opponentSpec opponentSpec | none]
+ */
+public class WeightTuner {
+
+    // SPSA gain sequences a / (k + 1 + A)^alpha and c / (k + 1)^gamma, with the usual exponents
+    private static final double A = 10;
+    private static final double ALPHA = 0.602;
+    private static final double GAMMA = 0.101;
+    // One-sided level of the repeated test over the whole run
+    private static final double SIGNIFICANCE = 0.05;
+
+    private MatchCoordinator coordinator;
+    private String kind = "paranoid";
+    private String[] opponents = {"astar", "random"};
+    private int nrIterations = 100;
+    private int nrPairs = 20;
+    private int batchSize = 5;
+    private int checkEvery = 5;
+    private int boardSize = 20;
+    private int moveTimeMs = 100;
+    private long moveNodeLimit = 10000;
+    private double a = 0.5;
+    private double c = 0.2;
+    private long seed = 0;
+    private File checkpoint = new File("weights.checkpoint");
+
+    private double[] baseline = LinearEvaluation.DEFAULT.getWeights();
+    private double[] weights = baseline.clone();
+    private int iteration = 0;
+    private int nextBatchId = 0;
+
+    public WeightTuner(MatchCoordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    public double[] tune() throws Exception {
+        if (2 + opponents.length != 2 && 2 + opponents.length != 4) {
+            throw new IllegalArgumentException("A game has 2 or 4 players, so give two opponents or none, not " + opponents.length);
+        }
+        loadCheckpoint();
+        double significantT = criticalT(SIGNIFICANCE / Math.max(1, nrIterations / checkEvery), nrPairs - 1);
+        Random rand = new Random(seed + iteration);
+        while (iteration < nrIterations) {
+            double ak = a / Math.pow(iteration + 1 + A, ALPHA);
+            double ck = c / Math.pow(iteration + 1, GAMMA);
+            double[] delta = new double[weights.length];
+            double[] plus = new double[weights.length];
+            double[] minus = new double[weights.length];
+            for (int i = 0; i < weights.length; i++) {
+                delta[i] = rand.nextBoolean() ? 1 : -1;
+                plus[i] = weights[i] + ck * delta[i];
+                minus[i] = weights[i] - ck * delta[i];
+            }
+
+            double[] differences = playPairs(plus, minus, seed + iteration * 1000003L);
+            double gradient = mean(differences) / (2 * ck);
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] += ak * gradient * delta[i];
+            }
+            iteration++;
+            saveCheckpoint();
+            System.out.println("iteration " + iteration + ": weights " + new LinearEvaluation(weights) + ", mean score difference " + mean(differences));
+
+            if (iteration % checkEvery == 0) {
+                double[] verification = playPairs(weights, baseline, seed - iteration * 1000003L);
+                double t = tStatistic(verification);
+                System.out.println("tuned against starting weights: mean " + mean(verification) + ", t = " + t);
+                if (t > significantT) {
+                    System.out.println("Tuned weights are significantly stronger, stopping");
+                    break;
+                }
+            }
+        }
+        return weights;
+    }
+
+    /*
+     * Plays nrPairs seeds twice, with the two weight vectors swapping seats, and returns per seed the average
+     * score of the first weights minus the score of the second.
+     */
+    private double[] playPairs(double[] first, double[] second, long pairSeed) throws InterruptedException {
+        String firstSpec = kind + ":" + new LinearEvaluation(first);
+        String secondSpec = kind + ":" + new LinearEvaluation(second);
+        List<MatchBatch> batches = new ArrayList<>();
+        for (int played = 0; played < nrPairs; played += batchSize) {
+            int size = Math.min(batchSize, nrPairs - played);
+            batches.add(new MatchBatch(nextBatchId++, pairSeed + played, size, boardSize, moveTimeMs, moveNodeLimit, seats(firstSpec, secondSpec)));
+            batches.add(new MatchBatch(nextBatchId++, pairSeed + played, size, boardSize, moveTimeMs, moveNodeLimit, seats(secondSpec, firstSpec)));
+        }
+        List<MatchResult> results = coordinator.run(batches);
+
+        double[] differences = new double[nrPairs];
+        int pair = 0;
+        int resultIndex = 0;
+        for (int b = 0; b < batches.size(); b += 2) {
+            int size = batches.get(b).nrMatches;
+            for (int i = 0; i < size; i++) {
+                MatchResult straight = results.get(resultIndex + i);
+                MatchResult swapped = results.get(resultIndex + size + i);
+                differences[pair++] = (score(straight, 0) - score(straight, 1) + score(swapped, 1) - score(swapped, 0)) / 2;
+            }
+            resultIndex += 2 * size;
+        }
+        return differences;
+    }
+
+    private String[] seats(String first, String second) {
+        String[] specs = new String[2 + opponents.length];
+        specs[0] = first;
+        specs[1] = second;
+        System.arraycopy(opponents, 0, specs, 2, opponents.length);
+        return specs;
+    }
+
+    // A win counts for one point, and the final length breaks ties between games that are lost
+    private static double score(MatchResult result, int player) {
+        return (result.winner == player ? 1 : 0) + Math.max(0, result.scores[player]) / 100d;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double tStatistic(double[] values) {
+        double mean = mean(values);
+        double sumSquares = 0;
+        for (double value : values) {
+            sumSquares += (value - mean) * (value - mean);
+        }
+        double standardError = Math.sqrt(sumSquares / (values.length - 1) / values.length);
+        return standardError == 0 ? 0 : mean / standardError;
+    }
+
+    /*
+     * Returns the value a t statistic with the given degrees of freedom exceeds with probability level.
+     * The normal quantile is found by bisection, and turned into a t quantile with the Cornish-Fisher expansion,
+     * which is accurate to a few hundredths from about ten degrees of freedom on.
+     */
+    private static double criticalT(double level, int degreesOfFreedom) {
+        double low = 0;
+        double high = 10;
+        for (int i = 0; i < 60; i++) {
+            double z = (low + high) / 2;
+            if (normalTail(z) > level) {
+                low = z;
+            }
+            else {
+                high = z;
+            }
+        }
+        double z = (low + high) / 2;
+        double n = Math.max(1, degreesOfFreedom);
+        return z + (z * z * z + z) / (4 * n) + (5 * Math.pow(z, 5) + 16 * z * z * z + 3 * z) / (96 * n * n);
+    }
+
+    // Probability that a standard normal variable exceeds z >= 0 (Abramowitz and Stegun 7.1.26)
+    private static double normalTail(double z) {
+        double x = z / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double poly = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))));
+        return poly * Math.exp(-x * x) / 2;
+    }
+
+    private void loadCheckpoint() throws IOException {
+        if (!checkpoint.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(checkpoint)) {
+            properties.load(in);
+        }
+        // The weights of one kind of player mean nothing to another
+        if (!kind.equals(properties.getProperty("kind"))) {
+            throw new IllegalArgumentException("Checkpoint " + checkpoint + " tunes " + properties.getProperty("kind") + ", not " + kind
+                    + "; give the same -kind or another -checkpoint");
+        }
+        iteration = Integer.parseInt(properties.getProperty("iteration"));
+        nextBatchId = Integer.parseInt(properties.getProperty("nextBatchId"));
+        weights = LinearEvaluation.parse(properties.getProperty("weights")).getWeights();
+        baseline = LinearEvaluation.parse(properties.getProperty("baseline")).getWeights();
+        System.out.println("Resuming from iteration " + iteration + " with weights " + new LinearEvaluation(weights));
+    }
+
+    // Writes to a temporary file first, so an interrupted run never leaves a broken checkpoint behind
+    private void saveCheckpoint() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("kind", kind);
+        properties.setProperty("iteration", Integer.toString(iteration));
+        properties.setProperty("nextBatchId", Integer.toString(nextBatchId));
+        properties.setProperty("weights", new LinearEvaluation(weights).toString());
+        properties.setProperty("baseline", new LinearEvaluation(baseline).toString());
+        File temporary = new File(checkpoint.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temporary)) {
+            properties.store(out, "WeightTuner checkpoint");
+        }
+        if (!temporary.renameTo(checkpoint)) {
+            checkpoint.delete();
+            temporary.renameTo(checkpoint);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        MatchCoordinator coordinator = new MatchCoordinator(0);
+        WeightTuner tuner = new WeightTuner(coordinator);
+        int nrWorkers = Runtime.getRuntime().availableProcessors();
+        List<String> opponents = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-kind": tuner.kind = args[++i]; break;
+                case "-workers": nrWorkers = Integer.parseInt(args[++i]); break;
+                case "-iterations": tuner.nrIterations = Integer.parseInt(args[++i]); break;
+                case "-pairs": tuner.nrPairs = Integer.parseInt(args[++i]); break;
+                case "-time": tuner.moveTimeMs = Integer.parseInt(args[++i]); break;
+                case "-nodes": tuner.moveNodeLimit = Long.parseLong(args[++i]); break;
+                case "-board": tuner.boardSize = Integer.parseInt(args[++i]); break;
+                case "-checkpoint": tuner.checkpoint = new File(args[++i]); break;
+                case "-seed": tuner.seed = Long.parseLong(args[++i]); break;
+                default: opponents.add(args[i]);
+            }
+        }
+        if (opponents.size() == 1 && opponents.get(0).equals("none")) {
+            tuner.opponents = new String[0];
+        }
+        else if (!opponents.isEmpty()) {
+            tuner.opponents = opponents.toArray(new String[0]);
+        }
+        coordinator.startLocalWorkers(nrWorkers);
+        double[] weights = tuner.tune();
+        coordinator.shutdown();
+        System.out.println("Tuned weights: " + new LinearEvaluation(weights));
+    }
+}